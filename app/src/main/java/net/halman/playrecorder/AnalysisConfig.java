@@ -0,0 +1,311 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Analysis parameters derived from the pitch range of the instrument
+ *
+ * The spectral window must hold enough periods of the lowest note for a good resolution,
+ * high instruments therefore get much shorter windows (and lower latency) than the low ones.
+ * While playing, the window is shortened further according to the last detected pitch.
+ * The window length is not bound to a power of two, the FFT is the next power of two
+ * of the window zero padded by PADDING.
+ *
+ * Audio is captured at the native rate of the device and decimated to the lowest rate
+ * (but at least MIN_SAMPLE_RATE) which keeps the highest searched pitch in the passband
+ * of the decimator. The decimated samples pass the filter stages in the order of stages(),
+ * by default they are filtered to the band of the instrument (see BiquadChain) and their
+ * level is normalised (see GainControl). The spectra are searched by the estimators of
+ * estimators() (see SpectrumEstimator).
+ */
+
+public class AnalysisConfig {
+    // filter stages of the analysed samples (see SampleFilter)
+    static final int STAGE_FILTER = 0;
+    static final int STAGE_GAIN = 1;
+    // estimators of the spectrum detectors (see SpectrumEstimator)
+    static final int ESTIMATOR_HARMONIC = 0;
+    static final int ESTIMATOR_PEAK = 1;
+
+    private static final double SEMITONE = Math.pow(2, 1 / 12.0);
+    // periods of the lowest searched pitch in the spectral window
+    private static final int PERIODS = 32;
+    // the FFT size is at least PADDING times the window
+    private static final int PADDING = 2;
+    // periods of the lowest pitch in the McLeod frame
+    private static final int MCLEOD_PERIODS = 3;
+    private static final int MIN_FFT_EXP = 8;
+    private static final int MAX_FFT_EXP = 13;
+    // shortest McLeod frame in seconds
+    private static final double MCLEOD_MIN_LENGTH = 0.016;
+    // supported by all devices
+    static final int CAPTURE_RATE = 44100;
+    // lowest analysis rate; the top notes get only 3.5 - 8 samples per period, which is
+    // enough because McLeodPitchDetector refines its maxima between the lags
+    private static final int MIN_SAMPLE_RATE = 8000;
+    // seconds between the frames of the sliding filters
+    private static final double SLIDING_HOP = 0.0025;
+
+    private int captureRate;
+    private int decimation;
+    private int sampleRate;
+    private double lowest;
+    private double highest;
+    private int minWindow;
+    private int maxWindow;
+    private int mcleodExp;
+    private double overlap = 0.75;
+    private boolean preEmphasis = false;
+    private boolean automaticGain = true;
+    private int[] stages = {STAGE_FILTER, STAGE_GAIN};
+    private int[] estimators = {ESTIMATOR_HARMONIC, ESTIMATOR_PEAK};
+
+    /*
+     * lowestNote and highestNote are the real pitches (Hz) playable on the instrument,
+     * a semitone is added on both sides of the searched band for out of tune notes
+     */
+    AnalysisConfig(double lowestNote, double highestNote)
+    {
+        this(lowestNote, highestNote, CAPTURE_RATE);
+    }
+
+    /*
+     * nativeRate is the capture sample rate
+     */
+    AnalysisConfig(double lowestNote, double highestNote, int nativeRate)
+    {
+        lowest = lowestNote / SEMITONE;
+        highest = highestNote * SEMITONE;
+
+        // the largest factor dividing the capture rate, keeping the highest pitch in the passband
+        captureRate = nativeRate;
+        double minRate = Math.max(MIN_SAMPLE_RATE, highest / Decimator.PASSBAND);
+        decimation = Math.max(1, (int) (captureRate / minRate));
+        while (captureRate % decimation != 0) {
+            --decimation;
+        }
+        sampleRate = captureRate / decimation;
+
+        int longest = (1 << MAX_FFT_EXP) / PADDING;
+        int shortest = (1 << MIN_FFT_EXP) / PADDING;
+        maxWindow = window(lowest, shortest, longest);
+        minWindow = window(highest, shortest, maxWindow);
+        mcleodExp = exp(Math.max(MCLEOD_PERIODS * sampleRate / lowest, MCLEOD_MIN_LENGTH * sampleRate), 6, MAX_FFT_EXP);
+    }
+
+    private static int exp(double length, int min, int max)
+    {
+        int e = min;
+        while (e < max && (1 << e) < length) {
+            ++e;
+        }
+        return e;
+    }
+
+    private int window(double pitch, int min, int max)
+    {
+        int length = (int) Math.ceil(PERIODS * sampleRate / pitch);
+        return Math.max(min, Math.min(max, length));
+    }
+
+    int captureRate()
+    {
+        return captureRate;
+    }
+
+    /*
+     * Ratio of the capture rate and the analysis rate
+     */
+    int decimation()
+    {
+        return decimation;
+    }
+
+    /*
+     * Analysis sample rate
+     */
+    int sampleRate()
+    {
+        return sampleRate;
+    }
+
+    double lowest()
+    {
+        return lowest;
+    }
+
+    double highest()
+    {
+        return highest;
+    }
+
+    int maxWindowLength()
+    {
+        return maxWindow;
+    }
+
+    int minFftExp()
+    {
+        return fftExp(minWindow);
+    }
+
+    int maxFftExp()
+    {
+        return fftExp(maxWindow);
+    }
+
+    int mcleodExp()
+    {
+        return mcleodExp;
+    }
+
+    /*
+     * Spectral window for the frame following a frame with the given pitch (0 for no pitch),
+     * the window stays long enough for a note an octave lower
+     */
+    int windowLength(double pitch)
+    {
+        if (pitch < lowest) {
+            return maxWindow;
+        }
+
+        return window(pitch / 2, minWindow, maxWindow);
+    }
+
+    boolean preEmphasis()
+    {
+        return preEmphasis;
+    }
+
+    /*
+     * Lift the harmonics of the low notes before the analysis (see BiquadChain)
+     */
+    void preEmphasis(boolean e)
+    {
+        preEmphasis = e;
+    }
+
+    boolean automaticGain()
+    {
+        return automaticGain;
+    }
+
+    /*
+     * Normalise the level of the analysed samples (see GainControl)
+     */
+    void automaticGain(boolean a)
+    {
+        automaticGain = a;
+    }
+
+    int[] stages()
+    {
+        return stages.clone();
+    }
+
+    /*
+     * Filter stages of the analysed samples in order, STAGE_FILTER (see BiquadChain) and
+     * STAGE_GAIN (see GainControl), each at most once, none for the plain decimated samples
+     */
+    void stages(int... s)
+    {
+        for (int i = 0; i < s.length; ++i) {
+            if (s[i] != STAGE_FILTER && s[i] != STAGE_GAIN) {
+                throw new IllegalArgumentException("Unknown filter stage " + s[i]);
+            }
+            for (int j = 0; j < i; ++j) {
+                if (s[j] == s[i]) {
+                    throw new IllegalArgumentException("Filter stage " + s[i] + " listed twice");
+                }
+            }
+        }
+        stages = s.clone();
+    }
+
+    int[] estimators()
+    {
+        return estimators.clone();
+    }
+
+    /*
+     * Estimators of the spectra, ESTIMATOR_HARMONIC (see HarmonicEstimator) and ESTIMATOR_PEAK
+     * (see PeakEstimator). The first one gives the pitch of the spectrum detector, all of
+     * them vote in the voting detector (see VotingPitchDetector).
+     */
+    void estimators(int... e)
+    {
+        for (int type : e) {
+            if (type != ESTIMATOR_HARMONIC && type != ESTIMATOR_PEAK) {
+                throw new IllegalArgumentException("Unknown spectrum estimator " + type);
+            }
+        }
+        if (e.length > 0) {
+            estimators = e.clone();
+        }
+    }
+
+    double overlap()
+    {
+        return overlap;
+    }
+
+    /*
+     * Fraction of a frame shared with the previous frame (0 .. 0.95), higher overlap
+     * gives more pitch updates per second
+     */
+    void overlap(double o)
+    {
+        overlap = Math.max(0, Math.min(0.95, o));
+    }
+
+    /*
+     * Number of new samples between two frames of the given length
+     */
+    int hop(int frameLength)
+    {
+        return Math.max(1, (int) Math.round(frameLength * (1 - overlap)));
+    }
+
+    /*
+     * Samples between two frames of a sliding detector (see GoertzelPitchDetector.sliding()),
+     * the frame costs only its new samples, so the pitch is updated much more often
+     */
+    int slidingHop()
+    {
+        return Math.max(1, (int) Math.round(SLIDING_HOP * sampleRate));
+    }
+
+    /*
+     * Samples in one capture block, about 10 ms at the capture rate
+     */
+    int blockSize()
+    {
+        int size = 64;
+        while (size < captureRate / 100) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /*
+     * FFT exponent for a window of the given length
+     */
+    int fftExp(int windowLength)
+    {
+        return exp(windowLength * PADDING, MIN_FFT_EXP, MAX_FFT_EXP);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import android.os.Process;
+
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Capture thread: reads the AudioSource into blocks of a BlockQueue and wakes up the analysis
+ *
+ * The thread does nothing else, so a slow analysis frame can't delay the next read. When the
+ * queue is full the block of a live source is read anyway (to keep the source flowing) and
+ * dropped. An overrun is counted when two reads return further apart than the buffer of the
+ * source can hold, samples were lost inside of the source then. A recorded source waits
+ * for free blocks instead and ends the capture at its end.
+ */
+
+public class AudioCapture implements Runnable {
+    private static final long WAIT_NANOS = 1000000L;
+
+    private AudioSource input;
+    private BlockQueue queue;
+    private Thread consumer;
+    private short[] discard;
+    private long bufferNanos;
+    private volatile int droppedBlocks = 0;
+    private volatile int overruns = 0;
+    private volatile boolean failed = false;
+    private volatile boolean finished = false;
+
+    /*
+     * consumer is woken up after every block
+     */
+    AudioCapture(AudioSource source, BlockQueue blocks, Thread analysis)
+    {
+        input = source;
+        queue = blocks;
+        consumer = analysis;
+        discard = new short[blocks.blockSize()];
+        bufferNanos = 1000000000L * source.bufferSamples() / source.sampleRate();
+    }
+
+    int droppedBlocks()
+    {
+        return droppedBlocks;
+    }
+
+    int overruns()
+    {
+        return overruns;
+    }
+
+    boolean failed()
+    {
+        return failed;
+    }
+
+    /*
+     * The source ended, all its samples are in the queue
+     */
+    boolean finished()
+    {
+        return finished;
+    }
+
+    public void run() {
+        boolean live = input.live();
+        if (live) {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        }
+        long last = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            short[] block = queue.claim();
+            if (block == null && !live) {
+                LockSupport.parkNanos(this, WAIT_NANOS);
+                continue;
+            }
+
+            boolean drop = block == null;
+            if (drop) {
+                block = discard;
+            }
+
+            int read = input.read(block, 0, block.length);
+            if (read < 0) {
+                failed = true;
+                break;
+            }
+            if (read == 0 && !live) {
+                finished = true;
+                break;
+            }
+
+            if (live) {
+                long now = System.nanoTime();
+                if (last != 0 && now - last > bufferNanos) {
+                    ++overruns;
+                }
+                last = now;
+            }
+
+            if (drop) {
+                ++droppedBlocks;
+            } else if (read > 0) {
+                queue.publish(read);
+            }
+            LockSupport.unpark(consumer);
+        }
+
+        LockSupport.unpark(consumer);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Source of 16 bit mono samples for Frequency
+ *
+ * A live source (microphone) delivers samples in real time, blocks which can't be queued
+ * are dropped. A recorded source (file) is read as fast as the analysis consumes it.
+ */
+
+public interface AudioSource {
+    int sampleRate();
+
+    /*
+     * True for real time sources
+     */
+    boolean live();
+
+    /*
+     * Samples buffered by a live source (the longest tolerated delay of read())
+     */
+    int bufferSamples();
+
+    void start();
+
+    /*
+     * Read up to length samples to buffer, blocks until samples are available. Returns the
+     * number of samples read, 0 at the end of the source or a negative value on error.
+     */
+    int read(short[] buffer, int offset, int length);
+
+    /*
+     * Stop the source, unblocks a pending read()
+     */
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Cascade of biquad sections applied to every analysed sample
+ *
+ * The sections are set from the analysis configuration: a high pass an octave below the
+ * lowest searched pitch removes the DC offset of the microphone and the rumble of breath
+ * and handling, a low pass above the harmonics used by the detectors removes the hiss, an
+ * optional high shelf lifts the harmonics of the low notes (pre-emphasis). The passband
+ * gain is one, the levels of EnergyGate stay valid.
+ *
+ * The pre-emphasis changes the levels: above twice the lowest pitch the gain rises to
+ * EMPHASIS (6 dB, half of it at the shelf frequency). The fundamentals of the upper notes and
+ * all the harmonics get louder, so EnergyGate opens for softer notes there. The noise of
+ * the room is lifted in the same way, so the noise profile (see NoiseProfile) is learned
+ * through the same chain, and Frequency drops the profile when the pre-emphasis changes.
+ *
+ * Direct form II transposed, coefficients by R. Bristow-Johnson: Cookbook formulae for
+ * audio EQ biquad filter coefficients
+ */
+
+public class BiquadChain implements SampleFilter {
+    private static final int MAX_SECTIONS = 3;
+    // Butterworth
+    private static final double Q = Math.sqrt(0.5);
+    // harmonics kept by the low pass
+    private static final int HARMONICS = 5;
+    // highest low pass relative to the sample rate
+    private static final double LIMIT = 0.45;
+    // lowest high pass (Hz)
+    private static final double MIN_HIGH_PASS = 20;
+    // gain of the pre-emphasis (dB)
+    private static final double EMPHASIS = 6;
+
+    private int sections = 0;
+    private double[] b0 = new double[MAX_SECTIONS];
+    private double[] b1 = new double[MAX_SECTIONS];
+    private double[] b2 = new double[MAX_SECTIONS];
+    private double[] a1 = new double[MAX_SECTIONS];
+    private double[] a2 = new double[MAX_SECTIONS];
+    private double[] z1 = new double[MAX_SECTIONS];
+    private double[] z2 = new double[MAX_SECTIONS];
+
+    /*
+     * Set the sections for the range and the analysis rate of the configuration,
+     * the state of the filter is cleared
+     */
+    @Override
+    public void configure(AnalysisConfig c)
+    {
+        int rate = c.sampleRate();
+        sections = 0;
+        highPass(Math.max(MIN_HIGH_PASS, c.lowest() / 2), rate);
+        lowPass(Math.min(HARMONICS * c.highest(), LIMIT * rate), rate);
+        if (c.preEmphasis()) {
+            highShelf(2 * c.lowest(), EMPHASIS, rate);
+        }
+        reset();
+    }
+
+    int sections()
+    {
+        return sections;
+    }
+
+    void reset()
+    {
+        for (int s = 0; s < MAX_SECTIONS; ++s) {
+            z1[s] = 0;
+            z2[s] = 0;
+        }
+    }
+
+    private void section(double nb0, double nb1, double nb2, double na0, double na1, double na2)
+    {
+        int s = sections++;
+        b0[s] = nb0 / na0;
+        b1[s] = nb1 / na0;
+        b2[s] = nb2 / na0;
+        a1[s] = na1 / na0;
+        a2[s] = na2 / na0;
+    }
+
+    private void highPass(double frequency, int rate)
+    {
+        double w = 2 * Math.PI * frequency / rate;
+        double cos = Math.cos(w);
+        double alpha = Math.sin(w) / (2 * Q);
+        section((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    private void lowPass(double frequency, int rate)
+    {
+        double w = 2 * Math.PI * frequency / rate;
+        double cos = Math.cos(w);
+        double alpha = Math.sin(w) / (2 * Q);
+        section((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    private void highShelf(double frequency, double gain, int rate)
+    {
+        double a = Math.pow(10, gain / 40);
+        double w = 2 * Math.PI * frequency / rate;
+        double cos = Math.cos(w);
+        // shelf slope 1
+        double alpha = Math.sin(w) / 2 * Math.sqrt(2);
+        double root = 2 * Math.sqrt(a) * alpha;
+        section(a * ((a + 1) + (a - 1) * cos + root),
+                -2 * a * ((a - 1) + (a + 1) * cos),
+                a * ((a + 1) + (a - 1) * cos - root),
+                (a + 1) - (a - 1) * cos + root,
+                2 * ((a - 1) - (a + 1) * cos),
+                (a + 1) - (a - 1) * cos - root);
+    }
+
+    /*
+     * Filter the next sample
+     */
+    @Override
+    public double process(double x)
+    {
+        for (int s = 0; s < sections; ++s) {
+            double y = b0[s] * x + z1[s];
+            z1[s] = b1[s] * x - a1[s] * y + z2[s];
+            z2[s] = b2[s] * x - a2[s] * y;
+            x = y;
+        }
+        return x;
+    }
+}
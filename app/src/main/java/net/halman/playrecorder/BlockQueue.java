@@ -0,0 +1,99 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Lock free single producer, single consumer queue of preallocated sample blocks
+ *
+ * The producer fills the block returned by claim() and hands it over by publish(), the consumer
+ * reads front() and returns it by release(). Each index is written by one thread only, the
+ * volatile writes publish the block content to the other thread.
+ */
+
+public class BlockQueue {
+    private short[][] blocks;
+    private int[] lengths;
+    private int mask;
+    // next block to consume, written by the consumer only
+    private volatile long head = 0;
+    // next block to publish, written by the producer only
+    private volatile long tail = 0;
+
+    /*
+     * count is rounded up to a power of two
+     */
+    BlockQueue(int count, int blockSize)
+    {
+        int capacity = 1;
+        while (capacity < count) {
+            capacity <<= 1;
+        }
+        blocks = new short[capacity][blockSize];
+        lengths = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    int blockSize()
+    {
+        return blocks[0].length;
+    }
+
+    /*
+     * Producer: block to be filled, null when the queue is full
+     */
+    short[] claim()
+    {
+        long t = tail;
+        if (t - head > mask) {
+            return null;
+        }
+        return blocks[(int) t & mask];
+    }
+
+    /*
+     * Producer: hand over the claimed block with length valid samples
+     */
+    void publish(int length)
+    {
+        long t = tail;
+        lengths[(int) t & mask] = length;
+        tail = t + 1;
+    }
+
+    /*
+     * Consumer
+     */
+    boolean isEmpty()
+    {
+        return head == tail;
+    }
+
+    short[] front()
+    {
+        return blocks[(int) head & mask];
+    }
+
+    int frontLength()
+    {
+        return lengths[(int) head & mask];
+    }
+
+    void release()
+    {
+        head = head + 1;
+    }
+}
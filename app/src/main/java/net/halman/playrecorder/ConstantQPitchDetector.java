@@ -0,0 +1,395 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+import java.util.Arrays;
+
+/*
+ * Constant-Q transform with BINS_PER_SEMITONE bins per semitone
+ *
+ * Every bin is a Hann windowed complex exponential of PERIODS periods of its frequency, so
+ * all bins have the same relative resolution. Every BINS_PER_SEMITONE-th bin is a note of
+ * the equal tempered scale (a4 = 440 Hz) as in Scale. All kernels end at the end of the
+ * frame, the most recent samples. The kernels are transformed by FFT once in range(), only
+ * the spectral values above THRESHOLD of the kernel maximum are kept. The transformation of
+ * a frame is then a short FFT per octave plus a short sparse product per bin.
+ *
+ * A single FFT over the whole frame would have to be as long as the kernel of the lowest
+ * bin, and the short kernels of the high bins would spread over hundreds of its bins. So the
+ * frame is decimated by two once per octave (the half band low pass of
+ * GoertzelPitchDetector) and every bin is taken at the lowest of these rates which keeps
+ * MIN_SAMPLES samples per period. The kernels are then at most a few hundred samples long
+ * at every level, each level needs one short FFT and every kernel only a few of its bins.
+ *
+ * The fundamental is found by sub-harmonic summation over the bins (see HarmonicSummation)
+ * and refined by Gaussian interpolation between the neighbour bins.
+ *
+ * J. C. Brown, M. S. Puckette: An efficient algorithm for the calculation of a constant Q
+ * transform, JASA 92 (1992)
+ * C. Schoerkhuber, A. Klapuri: Constant-Q transform toolbox for music processing, SMC (2010)
+ */
+
+public class ConstantQPitchDetector implements PitchDetector {
+    private static final double TINY = 1e-12;
+    static final int BINS_PER_SEMITONE = 3;
+    // periods of the bin frequency in its kernel
+    private static final int PERIODS = 32;
+    // relative magnitude of the dropped kernel values
+    private static final double THRESHOLD = 0.005;
+    private static final int HARMONICS = 5;
+    // bins of the main lobe on each side of a peak
+    private static final int LOBE = 2;
+    private static final double DECAY = 0.84;
+    // highest bin relative to the sample rate
+    private static final double LIMIT = 0.45;
+    // longest frame, as the largest FFT of the spectrum detectors
+    private static final int MAX_FFT_EXP = 13;
+    // samples per period of a bin at the rate it is transformed at, at least
+    private static final int MIN_SAMPLES = 4;
+
+    private int sampleRate;
+    // bins from a4 to the first bin
+    private int firstBin;
+    // bins which can be the result, the rest is only for the harmonics
+    private int candidates;
+    private int length;
+    private double confidence = 0;
+    private FFT fft;
+    private double[] frame;
+    private double[] real;
+    private double[] img;
+    // the frame decimated level times, the last samples of all levels are at the frame end
+    private float[][] decimated;
+    // the rate the bin is transformed at is the sample rate halved level times
+    private int[] level;
+    // sparse kernels, conjugated and scaled by 1 / fft size and the decimation response
+    private int[][] kernelIndex;
+    private double[][] kernelReal;
+    private double[][] kernelImg;
+    private double[] power;
+    // white noise passes longer kernels less, 1 / noise power of the kernel
+    private double[] whitening;
+    private double[] magnitude;
+    private int[] harmonicStep = new int[HARMONICS];
+    private double[] weight = new double[HARMONICS];
+
+    ConstantQPitchDetector(int rate)
+    {
+        sampleRate = rate;
+        double w = 1.0;
+        for (int h = 0; h < HARMONICS; ++h) {
+            weight[h] = w;
+            w *= DECAY;
+            harmonicStep[h] = (int) Math.round(12 * BINS_PER_SEMITONE * Math.log(h + 1) / Math.log(2));
+        }
+        range(0, 0);
+    }
+
+    private static double binFrequency(int bin)
+    {
+        return 440 * Math.pow(2, bin / (12.0 * BINS_PER_SEMITONE));
+    }
+
+    private static int bin(double frequency)
+    {
+        return (int) Math.floor(12 * BINS_PER_SEMITONE * Math.log(frequency / 440) / Math.log(2));
+    }
+
+    @Override
+    public int frameLength()
+    {
+        return length;
+    }
+
+    @Override
+    public void range(double lowest, double highest)
+    {
+        if (lowest <= 0 || highest <= lowest) {
+            // a soprano recorder
+            lowest = 523.25;
+            highest = 2349.32;
+        }
+
+        lowest = Math.max(lowest, PERIODS * sampleRate / (double) (1 << MAX_FFT_EXP));
+        firstBin = bin(lowest);
+        int lastBin = bin(Math.min(highest, LIMIT * sampleRate)) + 1;
+        candidates = Math.max(1, lastBin - firstBin + 1);
+        int bins = candidates + harmonicStep[HARMONICS - 1];
+        while (bins > candidates && binFrequency(firstBin + bins - 1) > LIMIT * sampleRate) {
+            --bins;
+        }
+
+        level = new int[bins];
+        power = new double[bins];
+        whitening = new double[bins];
+        magnitude = new double[bins];
+        kernelIndex = new int[bins][];
+        kernelReal = new double[bins][];
+        kernelImg = new double[bins][];
+
+        int[] kernelLength = new int[bins];
+        double[] response = new double[bins];
+        int levels = 1;
+        int longest = 0;
+        for (int k = 0; k < bins; ++k) {
+            double f = binFrequency(firstBin + k);
+            int l = 0;
+            response[k] = 1;
+            while (sampleRate / (double) (2 << l) >= MIN_SAMPLES * f) {
+                response[k] *= GoertzelPitchDetector.halfBand(2 * Math.PI * f * (1 << l) / sampleRate);
+                ++l;
+            }
+            level[k] = l;
+            levels = Math.max(levels, l + 1);
+            kernelLength[k] = (int) Math.ceil(PERIODS * sampleRate / (f * (1 << l)));
+            longest = Math.max(longest, kernelLength[k]);
+        }
+
+        // every level holds the longest kernel at its rate and the samples of the next one
+        decimated = new float[levels][];
+        int samples = 0;
+        for (int l = levels - 1; l >= 0; --l) {
+            samples *= 2;
+            for (int k = 0; k < bins; ++k) {
+                if (level[k] == l) {
+                    samples = Math.max(samples, kernelLength[k]);
+                }
+            }
+            decimated[l] = new float[samples];
+        }
+        length = samples;
+
+        int exp = 6;
+        while ((1 << exp) < longest) {
+            ++exp;
+        }
+        fft = new FFT(exp);
+        int size = fft.size();
+        frame = new double[size];
+        real = new double[size / 2 + 1];
+        img = new double[size / 2 + 1];
+
+        double[] kernelRe = new double[size];
+        double[] kernelIm = new double[size];
+        double[] spectrumReal = new double[size / 2 + 1];
+        double[] spectrumImg = new double[size / 2 + 1];
+        double[] re = new double[size / 2 + 1];
+        double[] im = new double[size / 2 + 1];
+        for (int k = 0; k < bins; ++k) {
+            double f = binFrequency(firstBin + k);
+            double rate = sampleRate / (double) (1 << level[k]);
+            int l = kernelLength[k];
+            double sum = 0;
+            double squares = 0;
+            for (int i = 0; i < l; ++i) {
+                double w = SpectrumEngine.hann(i, l);
+                sum += w;
+                squares += w * w;
+            }
+            // decimation keeps the noise density, the variance is halved at every level
+            whitening[k] = (1 << level[k]) * sum * sum / squares;
+
+            // the kernel ends with the frame
+            Arrays.fill(kernelRe, 0);
+            Arrays.fill(kernelIm, 0);
+            for (int i = 0; i < l; ++i) {
+                double w = SpectrumEngine.hann(i, l) / (sum * response[k]);
+                double ang = 2 * Math.PI * f * i / rate;
+                kernelRe[size - l + i] = w * Math.cos(ang);
+                kernelIm[size - l + i] = w * Math.sin(ang);
+            }
+            // spectrum of the complex kernel from spectra of its real and imaginary part
+            fft.realForward(kernelRe, spectrumReal, spectrumImg);
+            fft.realForward(kernelIm, re, im);
+            double max = 0;
+            for (int j = 0; j <= size / 2; ++j) {
+                double r = spectrumReal[j] - im[j];
+                double m = spectrumImg[j] + re[j];
+                spectrumReal[j] = r;
+                spectrumImg[j] = m;
+                max = Math.max(max, r * r + m * m);
+            }
+
+            int count = 0;
+            double limit = THRESHOLD * THRESHOLD * max;
+            for (int j = 0; j <= size / 2; ++j) {
+                if (spectrumReal[j] * spectrumReal[j] + spectrumImg[j] * spectrumImg[j] > limit) {
+                    ++count;
+                }
+            }
+            kernelIndex[k] = new int[count];
+            kernelReal[k] = new double[count];
+            kernelImg[k] = new double[count];
+            count = 0;
+            for (int j = 0; j <= size / 2; ++j) {
+                if (spectrumReal[j] * spectrumReal[j] + spectrumImg[j] * spectrumImg[j] > limit) {
+                    kernelIndex[k][count] = j;
+                    kernelReal[k][count] = spectrumReal[j] / size;
+                    kernelImg[k][count] = -spectrumImg[j] / size;
+                    ++count;
+                }
+            }
+        }
+    }
+
+    /*
+     * Power of the constant-Q bins of the frame
+     */
+    private void transform(SampleRing ring, long start)
+    {
+        short[] data = ring.data();
+        int mask = ring.mask();
+        float[] samples = decimated[0];
+        for (int i = 0; i < samples.length; ++i) {
+            samples[i] = data[(int) (start + i) & mask];
+        }
+        for (int l = 1; l < decimated.length; ++l) {
+            GoertzelPitchDetector.halve(decimated[l - 1], decimated[l]);
+        }
+
+        // the bins go down the levels
+        int size = fft.size();
+        int current = -1;
+        for (int k = 0; k < power.length; ++k) {
+            if (level[k] != current) {
+                current = level[k];
+                float[] x = decimated[current];
+                int offset = Math.max(0, size - x.length);
+                for (int i = 0; i < offset; ++i) {
+                    frame[i] = 0;
+                }
+                for (int i = offset; i < size; ++i) {
+                    frame[i] = x[x.length - size + i];
+                }
+                fft.realForward(frame, real, img);
+            }
+
+            int[] index = kernelIndex[k];
+            double[] kr = kernelReal[k];
+            double[] ki = kernelImg[k];
+            double r = 0;
+            double m = 0;
+            for (int i = 0; i < index.length; ++i) {
+                int j = index[i];
+                r += real[j] * kr[i] - img[j] * ki[i];
+                m += real[j] * ki[i] + img[j] * kr[i];
+            }
+            power[k] = r * r + m * m;
+        }
+    }
+
+    @Override
+    public double detect(SampleRing ring, long start)
+    {
+        transform(ring, start);
+
+        int bins = power.length;
+        for (int k = 0; k < bins; ++k) {
+            magnitude[k] = Math.sqrt(power[k]);
+        }
+
+        double bestScore = 0;
+        int best = -1;
+        for (int k = 0; k < candidates; ++k) {
+            double score = 0;
+            for (int h = 0; h < HARMONICS && k + harmonicStep[h] < bins; ++h) {
+                // a harmonic is up to half a bin off the grid
+                int c = k + harmonicStep[h];
+                double m = magnitude[c];
+                if (h > 0) {
+                    m = Math.max(m, Math.max(magnitude[c - 1], c + 1 < bins ? magnitude[c + 1] : 0));
+                }
+                score += weight[h] * m;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = k;
+            }
+        }
+
+        confidence = 0;
+        if (best < 0) {
+            return 0;
+        }
+
+        // the neighbour of the true bin collects the same harmonics, take the real maximum
+        if (best > 0 && power[best - 1] > power[best]) {
+            --best;
+        } else if (best + 1 < candidates && power[best + 1] > power[best]) {
+            ++best;
+        }
+        confidence = harmonicShare(best);
+
+        return binFrequency(firstBin + best) * Math.pow(2, peakOffset(best) / (12.0 * BINS_PER_SEMITONE));
+    }
+
+    @Override
+    public double confidence()
+    {
+        return confidence;
+    }
+
+    /*
+     * Part of the whitened power of all bins in the main lobes of the harmonics of bin,
+     * the part white noise would have by chance is subtracted
+     */
+    private double harmonicShare(int bin)
+    {
+        int bins = power.length;
+        double total = 0;
+        for (int k = 0; k < bins; ++k) {
+            total += power[k] * whitening[k];
+        }
+
+        double harmonic = 0;
+        int count = 0;
+        for (int h = 0; h < HARMONICS; ++h) {
+            int c = bin + harmonicStep[h];
+            for (int k = Math.max(0, c - LOBE); k <= Math.min(bins - 1, c + LOBE); ++k) {
+                harmonic += power[k] * whitening[k];
+                ++count;
+            }
+        }
+
+        if (total <= 0) {
+            return 0;
+        }
+        double chance = count / (double) bins;
+        return Math.max(0, Math.min(1, (harmonic / total - chance) / (1 - chance)));
+    }
+
+    /*
+     * Gaussian interpolation between the neighbour bins, in bins
+     */
+    private double peakOffset(int bin)
+    {
+        if (bin < 1 || bin + 1 >= power.length) {
+            return 0;
+        }
+
+        double a = Math.log(power[bin - 1] + TINY);
+        double b = Math.log(power[bin] + TINY);
+        double c = Math.log(power[bin + 1] + TINY);
+        double d = a - 2 * b + c;
+        if (d >= 0) {
+            return 0;
+        }
+
+        return Math.max(-1, Math.min(1, 0.5 * (a - c) / d));
+    }
+}
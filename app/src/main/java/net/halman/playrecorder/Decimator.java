@@ -0,0 +1,195 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Polyphase decimator from the capture rate to the analysis rate
+ *
+ * The anti-aliasing low pass is a Kaiser windowed sinc with the cutoff at the Nyquist
+ * frequency of the output. Only every factor-th output of the filter is kept, so only that
+ * output is computed: each kept sample is the sum of the factor polyphase branches of the
+ * filter, about taps / factor multiplications per input sample. The passband reaches
+ * PASSBAND times the output rate, aliases of the signal above Nyquist fold back above it.
+ *
+ * The optional filter stages (see SampleFilter, e.g. BiquadChain and GainControl) run in the
+ * same loop on the kept outputs, the samples are converted, decimated, filtered and
+ * amplified in one pass. Clipped input samples are counted on the way, and so are the
+ * outputs of the stages which do not fit into a sample (a gain raised for a soft passage
+ * meets a sudden loud note).
+ */
+
+public class Decimator {
+    // end of the passband, relative to the output rate
+    static final double PASSBAND = 0.4;
+    // stopband attenuation about 60 dB
+    private static final double BETA = 5.65;
+    // taps per decimation step for the transition band 0.4 .. 0.6 of the output rate
+    private static final int TAPS_PER_STEP = 18;
+    // input samples at least this loud are taken as clipped
+    private static final int CLIP = 32766;
+
+    private int factor;
+    private float[] taps;
+    // input history stored twice, the last taps.length inputs start at history[head]
+    private float[] history;
+    private int head = 0;
+    // inputs since the last output
+    private int phase = 0;
+    private short[] output;
+    private SampleFilter[] filters;
+    // clipped input and output samples since the last call of clipped()
+    private int clipped = 0;
+
+    /*
+     * blockSize is the longest input passed to process() at once, the outputs are passed
+     * through the filters
+     */
+    Decimator(int factor, int blockSize, SampleFilter... filters)
+    {
+        this.factor = factor;
+        this.filters = filters;
+        output = new short[blockSize / factor + 1];
+        if (factor == 1) {
+            return;
+        }
+
+        int length = TAPS_PER_STEP * factor + 1;
+        taps = new float[length];
+        double cutoff = 0.5 / factor;
+        double norm = bessel0(BETA);
+        double sum = 0;
+        for (int i = 0; i < length; ++i) {
+            double t = i - (length - 1) / 2.0;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double r = 2.0 * i / (length - 1) - 1;
+            double h = sinc * bessel0(BETA * Math.sqrt(1 - r * r)) / norm;
+            taps[i] = (float) h;
+            sum += h;
+        }
+        // unity gain at DC
+        for (int i = 0; i < length; ++i) {
+            taps[i] /= sum;
+        }
+
+        history = new float[2 * length];
+        head = length;
+    }
+
+    private static double bessel0(double x)
+    {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 30; ++k) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    int factor()
+    {
+        return factor;
+    }
+
+    /*
+     * Number of clipped input and output samples since the last call
+     */
+    int clipped()
+    {
+        int c = clipped;
+        clipped = 0;
+        return c;
+    }
+
+    /*
+     * Number of input samples which produce the next count output samples
+     */
+    int inputLength(int count)
+    {
+        return count * factor - phase;
+    }
+
+    /*
+     * Filter length input samples and append the kept outputs to ring,
+     * returns the number of samples written to ring
+     */
+    int process(short[] input, int offset, int length, SampleRing ring)
+    {
+        if (factor == 1) {
+            for (int i = 0; i < length; ++i) {
+                int sample = input[offset + i];
+                if (sample >= CLIP || sample <= -CLIP) {
+                    ++clipped;
+                }
+                output[i] = clip(condition(sample));
+            }
+            ring.write(output, 0, length);
+            return length;
+        }
+
+        float[] h = taps;
+        float[] x = history;
+        int n = h.length;
+        int count = 0;
+
+        for (int i = 0; i < length; ++i) {
+            // newest sample first, the copy keeps the window contiguous
+            head = head == 0 ? n - 1 : head - 1;
+            int sample = input[offset + i];
+            if (sample >= CLIP || sample <= -CLIP) {
+                ++clipped;
+            }
+            x[head] = x[head + n] = sample;
+
+            if (++phase < factor) {
+                continue;
+            }
+            phase = 0;
+
+            float acc = 0;
+            for (int k = 0; k < n; ++k) {
+                acc += h[k] * x[head + k];
+            }
+            output[count++] = clip(condition(acc));
+        }
+
+        ring.write(output, 0, count);
+        return count;
+    }
+
+    /*
+     * Pass an output sample through the filter stages in order
+     */
+    private double condition(double x)
+    {
+        for (SampleFilter f: filters) {
+            x = f.process(x);
+        }
+        return x;
+    }
+
+    private short clip(double x)
+    {
+        long sample = Math.round(x);
+        if (sample > 32767 || sample < -32768) {
+            ++clipped;
+            return (short) Math.max(-32768, Math.min(32767, sample));
+        }
+        return (short) sample;
+    }
+}
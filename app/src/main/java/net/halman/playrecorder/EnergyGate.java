@@ -0,0 +1,118 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Signal detection by RMS and peak level of the recorded samples
+ *
+ * The levels are collected while the samples are moved to the ring and evaluated once per
+ * frame. The gate opens above the OPEN level (or the PEAK_OPEN peak) and closes only after
+ * the level stays under the lower CLOSE level for HOLD seconds, so the end of a soft note or
+ * a short breath does not switch the analysis on and off.
+ */
+
+public class EnergyGate {
+    // levels of 16 bit samples, about -45 dBFS and -51 dBFS
+    private static final double OPEN = 185;
+    private static final double CLOSE = 92;
+    // about -30 dBFS
+    private static final int PEAK_OPEN = 1036;
+    private static final double HOLD = 0.1;
+
+    private int holdSamples;
+    private long sumSquares = 0;
+    private int samples = 0;
+    private int peak = 0;
+    private int quiet = 0;
+    private boolean open = false;
+    private double rms = 0;
+
+    EnergyGate(int sampleRate)
+    {
+        holdSamples = (int) (HOLD * sampleRate);
+    }
+
+    /*
+     * Collect the levels of the last count samples written to ring
+     */
+    void add(SampleRing ring, int count)
+    {
+        short[] data = ring.data();
+        int mask = ring.mask();
+        long from = ring.position() - count;
+        long sum = 0;
+        int max = peak;
+        for (int i = 0; i < count; ++i) {
+            int v = data[(int) (from + i) & mask];
+            sum += v * v;
+            if (v < 0) {
+                v = -v;
+            }
+            if (v > max) {
+                max = v;
+            }
+        }
+        sumSquares += sum;
+        samples += count;
+        peak = max;
+    }
+
+    /*
+     * Evaluate the samples collected since the last update, returns open()
+     */
+    boolean update()
+    {
+        if (samples == 0) {
+            return open;
+        }
+
+        rms = Math.sqrt((double) sumSquares / samples);
+        if (open) {
+            if (rms < CLOSE && peak < PEAK_OPEN) {
+                quiet += samples;
+                open = quiet < holdSamples;
+            } else {
+                quiet = 0;
+            }
+        } else if (rms > OPEN || peak > PEAK_OPEN) {
+            open = true;
+            quiet = 0;
+        }
+
+        sumSquares = 0;
+        samples = 0;
+        peak = 0;
+        return open;
+    }
+
+    /*
+     * True while there is a signal worth of analysis
+     */
+    boolean open()
+    {
+        return open;
+    }
+
+    /*
+     * RMS level of the samples of the last update
+     */
+    double rms()
+    {
+        return rms;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Fast Fourier transformation of a real signal
+ *
+ * The real input of length n is packed into a complex signal of length n/2 (even samples
+ * go to the real part, odd samples to the imaginary part). The packed signal is transformed
+ * by radix-4 stages (with a single radix-2 stage when log2(n/2) is odd) and the spectrum
+ * of the real signal is finally split out of the result. Twiddle factors and the bit reverse
+ * table are computed once in the constructor, the transformation itself does not call any
+ * trigonometric function and does not allocate memory.
+ *
+ * The output is not normalized, multiply it by 1/n to get the usual forward transform.
+ */
+
+public class FFT {
+    private int size;
+    private int half;
+    private int half_exp;
+    private double[] twiddle_cos;
+    private double[] twiddle_sin;
+    private int[] bitreverse;
+    private double[] work_real;
+    private double[] work_img;
+
+    FFT(int exp)
+    {
+        size = 1 << exp;
+        half = size / 2;
+        half_exp = exp - 1;
+
+        // radix-4 stages of the half size transformation need W^k up to k < 3/4 n
+        int twiddles = size * 3 / 4;
+        twiddle_cos = new double[twiddles];
+        twiddle_sin = new double[twiddles];
+        for (int k = 0; k < twiddles; ++k) {
+            double ang = 2 * Math.PI * k / size;
+            twiddle_cos[k] = Math.cos(ang);
+            twiddle_sin[k] = Math.sin(ang);
+        }
+
+        bitreverse = new int[half];
+        for (int i = 0; i < half; ++i) {
+            int k = 0;
+            for (int j = 0; j < half_exp; ++j) {
+                k <<= 1;
+                if ((i & (1 << j)) != 0) {
+                    k += 1;
+                }
+            }
+            bitreverse[i] = k;
+        }
+
+        work_real = new double[half];
+        work_img = new double[half];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /*
+     * Transform size() real values from input, write bins 0 .. size()/2 (inclusive)
+     * to real and img.
+     */
+    void realForward(double[] input, double[] real, double[] img)
+    {
+        for (int i = 0; i < half; ++i) {
+            int k = bitreverse[i];
+            work_real[k] = input[2 * i];
+            work_img[k] = input[2 * i + 1];
+        }
+
+        complexForward();
+        split(real, img);
+    }
+
+    private void complexForward()
+    {
+        double[] re = work_real;
+        double[] im = work_img;
+        int m = 1;
+
+        if ((half_exp & 1) != 0) {
+            for (int i = 0; i < half; i += 2) {
+                double tr = re[i + 1];
+                double ti = im[i + 1];
+                re[i + 1] = re[i] - tr;
+                im[i + 1] = im[i] - ti;
+                re[i] += tr;
+                im[i] += ti;
+            }
+            m = 2;
+        }
+
+        for (; m < half; m *= 4) {
+            int l = 4 * m;
+            int stride = size / l;
+            for (int base = 0; base < half; base += l) {
+                for (int j = 0; j < m; ++j) {
+                    int i0 = base + j;
+                    int i1 = i0 + m;
+                    int i2 = i1 + m;
+                    int i3 = i2 + m;
+                    int t1 = j * stride;
+                    int t2 = 2 * t1;
+                    int t3 = t1 + t2;
+
+                    // bit reversed order keeps the odd quarter (r = 1) in the third block
+                    double ar = re[i0];
+                    double ai = im[i0];
+                    double c = twiddle_cos[t1];
+                    double s = twiddle_sin[t1];
+                    double br = re[i2] * c + im[i2] * s;
+                    double bi = im[i2] * c - re[i2] * s;
+                    c = twiddle_cos[t2];
+                    s = twiddle_sin[t2];
+                    double cr = re[i1] * c + im[i1] * s;
+                    double ci = im[i1] * c - re[i1] * s;
+                    c = twiddle_cos[t3];
+                    s = twiddle_sin[t3];
+                    double dr = re[i3] * c + im[i3] * s;
+                    double di = im[i3] * c - re[i3] * s;
+
+                    double sr0 = ar + cr;
+                    double si0 = ai + ci;
+                    double sr1 = ar - cr;
+                    double si1 = ai - ci;
+                    double sr2 = br + dr;
+                    double si2 = bi + di;
+                    double sr3 = br - dr;
+                    double si3 = bi - di;
+
+                    re[i0] = sr0 + sr2;
+                    im[i0] = si0 + si2;
+                    re[i2] = sr0 - sr2;
+                    im[i2] = si0 - si2;
+                    // multiplication by -i
+                    re[i1] = sr1 + si3;
+                    im[i1] = si1 - sr3;
+                    re[i3] = sr1 - si3;
+                    im[i3] = si1 + sr3;
+                }
+            }
+        }
+    }
+
+    private void split(double[] real, double[] img)
+    {
+        double[] re = work_real;
+        double[] im = work_img;
+
+        real[0] = re[0] + im[0];
+        img[0] = 0.0;
+        real[half] = re[0] - im[0];
+        img[half] = 0.0;
+
+        for (int k = 1; k < half; ++k) {
+            int nk = half - k;
+            double er = (re[k] + re[nk]) * 0.5;
+            double ei = (im[k] - im[nk]) * 0.5;
+            double or = (im[k] + im[nk]) * 0.5;
+            double oi = (re[nk] - re[k]) * 0.5;
+            double c = twiddle_cos[k];
+            double s = twiddle_sin[k];
+            real[k] = er + or * c + oi * s;
+            img[k] = ei + oi * c - or * s;
+        }
+    }
+}
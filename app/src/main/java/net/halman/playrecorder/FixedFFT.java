@@ -0,0 +1,242 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Fixed point variant of FFT (see FFT.java for the algorithm)
+ *
+ * Input samples and twiddle factors are Q15 values, the transformation runs on 32 bit
+ * integers with a block exponent: before every stage the data are shifted so that the
+ * largest value stays below 2^14, which keeps all products of the butterflies inside
+ * of 32 bits. The real value of the result is output * 2^exponent().
+ */
+
+public class FixedFFT {
+    private static final int LIMIT = 1 << 14;
+
+    private int size;
+    private int half;
+    private int half_exp;
+    private short[] twiddle_cos;
+    private short[] twiddle_sin;
+    private int[] bitreverse;
+    private int[] work_real;
+    private int[] work_img;
+    private int exponent = 0;
+
+    FixedFFT(int exp)
+    {
+        size = 1 << exp;
+        half = size / 2;
+        half_exp = exp - 1;
+
+        int twiddles = size * 3 / 4;
+        twiddle_cos = new short[twiddles];
+        twiddle_sin = new short[twiddles];
+        for (int k = 0; k < twiddles; ++k) {
+            double ang = 2 * Math.PI * k / size;
+            twiddle_cos[k] = (short) Math.round(Math.cos(ang) * 32767);
+            twiddle_sin[k] = (short) Math.round(Math.sin(ang) * 32767);
+        }
+
+        bitreverse = new int[half];
+        for (int i = 0; i < half; ++i) {
+            int k = 0;
+            for (int j = 0; j < half_exp; ++j) {
+                k <<= 1;
+                if ((i & (1 << j)) != 0) {
+                    k += 1;
+                }
+            }
+            bitreverse[i] = k;
+        }
+
+        work_real = new int[half];
+        work_img = new int[half];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int exponent()
+    {
+        return exponent;
+    }
+
+    /*
+     * Transform size() Q15 values from input, write bins 0 .. size()/2 (inclusive)
+     * to real and img, scaled by 2^exponent().
+     */
+    void realForward(short[] input, int[] real, int[] img)
+    {
+        int max = 0;
+        for (int i = 0; i < half; ++i) {
+            int k = bitreverse[i];
+            int r = input[2 * i];
+            int m = input[2 * i + 1];
+            work_real[k] = r;
+            work_img[k] = m;
+            max |= Math.abs(r) | Math.abs(m);
+        }
+
+        // use the whole dynamic range for quiet signals
+        exponent = 0;
+        if (max != 0) {
+            int shift = 0;
+            while ((max << (shift + 1)) < LIMIT) {
+                ++shift;
+            }
+            if (shift > 0) {
+                for (int i = 0; i < half; ++i) {
+                    work_real[i] <<= shift;
+                    work_img[i] <<= shift;
+                }
+                exponent = -shift;
+            }
+        }
+
+        complexForward();
+        normalize(maximum());
+        split(real, img);
+    }
+
+    private int maximum()
+    {
+        int max = 0;
+        for (int i = 0; i < half; ++i) {
+            max |= Math.abs(work_real[i]) | Math.abs(work_img[i]);
+        }
+        return max;
+    }
+
+    /*
+     * Shift the work buffers right until max (an upper bound of all values) fits under LIMIT
+     */
+    private void normalize(int max)
+    {
+        int shift = 0;
+        while ((max >> shift) >= LIMIT) {
+            ++shift;
+        }
+
+        if (shift == 0) {
+            return;
+        }
+
+        for (int i = 0; i < half; ++i) {
+            work_real[i] >>= shift;
+            work_img[i] >>= shift;
+        }
+        exponent += shift;
+    }
+
+    private void complexForward()
+    {
+        int[] re = work_real;
+        int[] im = work_img;
+        int m = 1;
+
+        if ((half_exp & 1) != 0) {
+            for (int i = 0; i < half; i += 2) {
+                int tr = re[i + 1];
+                int ti = im[i + 1];
+                re[i + 1] = re[i] - tr;
+                im[i + 1] = im[i] - ti;
+                re[i] += tr;
+                im[i] += ti;
+            }
+            m = 2;
+        }
+
+        for (; m < half; m *= 4) {
+            normalize(maximum());
+
+            int l = 4 * m;
+            int stride = size / l;
+            for (int base = 0; base < half; base += l) {
+                for (int j = 0; j < m; ++j) {
+                    int i0 = base + j;
+                    int i1 = i0 + m;
+                    int i2 = i1 + m;
+                    int i3 = i2 + m;
+                    int t1 = j * stride;
+                    int t2 = 2 * t1;
+                    int t3 = t1 + t2;
+
+                    int ar = re[i0];
+                    int ai = im[i0];
+                    int c = twiddle_cos[t1];
+                    int s = twiddle_sin[t1];
+                    int br = (re[i2] * c + im[i2] * s) >> 15;
+                    int bi = (im[i2] * c - re[i2] * s) >> 15;
+                    c = twiddle_cos[t2];
+                    s = twiddle_sin[t2];
+                    int cr = (re[i1] * c + im[i1] * s) >> 15;
+                    int ci = (im[i1] * c - re[i1] * s) >> 15;
+                    c = twiddle_cos[t3];
+                    s = twiddle_sin[t3];
+                    int dr = (re[i3] * c + im[i3] * s) >> 15;
+                    int di = (im[i3] * c - re[i3] * s) >> 15;
+
+                    int sr0 = ar + cr;
+                    int si0 = ai + ci;
+                    int sr1 = ar - cr;
+                    int si1 = ai - ci;
+                    int sr2 = br + dr;
+                    int si2 = bi + di;
+                    int sr3 = br - dr;
+                    int si3 = bi - di;
+
+                    re[i0] = sr0 + sr2;
+                    im[i0] = si0 + si2;
+                    re[i2] = sr0 - sr2;
+                    im[i2] = si0 - si2;
+                    re[i1] = sr1 + si3;
+                    im[i1] = si1 - sr3;
+                    re[i3] = sr1 - si3;
+                    im[i3] = si1 + sr3;
+                }
+            }
+        }
+    }
+
+    private void split(int[] real, int[] img)
+    {
+        int[] re = work_real;
+        int[] im = work_img;
+
+        real[0] = re[0] + im[0];
+        img[0] = 0;
+        real[half] = re[0] - im[0];
+        img[half] = 0;
+
+        for (int k = 1; k < half; ++k) {
+            int nk = half - k;
+            int er = (re[k] + re[nk]) >> 1;
+            int ei = (im[k] - im[nk]) >> 1;
+            int or = (im[k] + im[nk]) >> 1;
+            int oi = (re[nk] - re[k]) >> 1;
+            int c = twiddle_cos[k];
+            int s = twiddle_sin[k];
+            real[k] = er + ((or * c + oi * s) >> 15);
+            img[k] = ei + ((oi * c - or * s) >> 15);
+        }
+    }
+}
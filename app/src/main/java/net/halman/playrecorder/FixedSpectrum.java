@@ -0,0 +1,80 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+public class FixedSpectrum extends SpectrumEngine {
+    private FixedFFT fft;
+    private short[] frame;
+    private short[] hannWindow;
+    private int windowLength = 0;
+    private int[] spectrum_real;
+    private int[] spectrum_img;
+
+    FixedSpectrum(int fftExp)
+    {
+        fft = new FixedFFT(fftExp);
+        int size = fft.size();
+        frame = new short[size];
+        hannWindow = new short[size];
+        spectrum_real = new int[size / 2 + 1];
+        spectrum_img = new int[size / 2 + 1];
+    }
+
+    @Override
+    int size()
+    {
+        return fft.size();
+    }
+
+    @Override
+    void load(SampleRing ring, long start, int length)
+    {
+        short[] samples = ring.data();
+        int mask = ring.mask();
+        int offset = (int) start;
+        int size = fft.size();
+
+        if (length != windowLength) {
+            for (int i = 0; i < length; ++i) {
+                hannWindow[i] = (short) Math.round(hann(i, length) * 32767);
+            }
+            windowLength = length;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            frame[i] = (short) ((samples[(offset + i) & mask] * hannWindow[i]) >> 15);
+        }
+
+        for (int i = length; i < size; ++i) {
+            frame[i] = 0;
+        }
+    }
+
+    @Override
+    void transform()
+    {
+        fft.realForward(frame, spectrum_real, spectrum_img);
+    }
+
+    @Override
+    double power(int bin)
+    {
+        long r = spectrum_real[bin];
+        long m = spectrum_img[bin];
+        return Math.scalb((double) (r * r + m * m), 2 * fft.exponent());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Single precision variant of FFT, the algorithm is the same (see FFT.java). Tables and work
+ * buffers take half of the memory and float arithmetic is cheaper on older ARM devices.
+ */
+
+public class FloatFFT {
+    private int size;
+    private int half;
+    private int half_exp;
+    private float[] twiddle_cos;
+    private float[] twiddle_sin;
+    private int[] bitreverse;
+    private float[] work_real;
+    private float[] work_img;
+
+    FloatFFT(int exp)
+    {
+        size = 1 << exp;
+        half = size / 2;
+        half_exp = exp - 1;
+
+        // radix-4 stages of the half size transformation need W^k up to k < 3/4 n
+        int twiddles = size * 3 / 4;
+        twiddle_cos = new float[twiddles];
+        twiddle_sin = new float[twiddles];
+        for (int k = 0; k < twiddles; ++k) {
+            double ang = 2 * Math.PI * k / size;
+            twiddle_cos[k] = (float) Math.cos(ang);
+            twiddle_sin[k] = (float) Math.sin(ang);
+        }
+
+        bitreverse = new int[half];
+        for (int i = 0; i < half; ++i) {
+            int k = 0;
+            for (int j = 0; j < half_exp; ++j) {
+                k <<= 1;
+                if ((i & (1 << j)) != 0) {
+                    k += 1;
+                }
+            }
+            bitreverse[i] = k;
+        }
+
+        work_real = new float[half];
+        work_img = new float[half];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /*
+     * Transform size() real values from input, write bins 0 .. size()/2 (inclusive)
+     * to real and img.
+     */
+    void realForward(float[] input, float[] real, float[] img)
+    {
+        for (int i = 0; i < half; ++i) {
+            int k = bitreverse[i];
+            work_real[k] = input[2 * i];
+            work_img[k] = input[2 * i + 1];
+        }
+
+        complexForward();
+        split(real, img);
+    }
+
+    private void complexForward()
+    {
+        float[] re = work_real;
+        float[] im = work_img;
+        int m = 1;
+
+        if ((half_exp & 1) != 0) {
+            for (int i = 0; i < half; i += 2) {
+                float tr = re[i + 1];
+                float ti = im[i + 1];
+                re[i + 1] = re[i] - tr;
+                im[i + 1] = im[i] - ti;
+                re[i] += tr;
+                im[i] += ti;
+            }
+            m = 2;
+        }
+
+        for (; m < half; m *= 4) {
+            int l = 4 * m;
+            int stride = size / l;
+            for (int base = 0; base < half; base += l) {
+                for (int j = 0; j < m; ++j) {
+                    int i0 = base + j;
+                    int i1 = i0 + m;
+                    int i2 = i1 + m;
+                    int i3 = i2 + m;
+                    int t1 = j * stride;
+                    int t2 = 2 * t1;
+                    int t3 = t1 + t2;
+
+                    // bit reversed order keeps the odd quarter (r = 1) in the third block
+                    float ar = re[i0];
+                    float ai = im[i0];
+                    float c = twiddle_cos[t1];
+                    float s = twiddle_sin[t1];
+                    float br = re[i2] * c + im[i2] * s;
+                    float bi = im[i2] * c - re[i2] * s;
+                    c = twiddle_cos[t2];
+                    s = twiddle_sin[t2];
+                    float cr = re[i1] * c + im[i1] * s;
+                    float ci = im[i1] * c - re[i1] * s;
+                    c = twiddle_cos[t3];
+                    s = twiddle_sin[t3];
+                    float dr = re[i3] * c + im[i3] * s;
+                    float di = im[i3] * c - re[i3] * s;
+
+                    float sr0 = ar + cr;
+                    float si0 = ai + ci;
+                    float sr1 = ar - cr;
+                    float si1 = ai - ci;
+                    float sr2 = br + dr;
+                    float si2 = bi + di;
+                    float sr3 = br - dr;
+                    float si3 = bi - di;
+
+                    re[i0] = sr0 + sr2;
+                    im[i0] = si0 + si2;
+                    re[i2] = sr0 - sr2;
+                    im[i2] = si0 - si2;
+                    // multiplication by -i
+                    re[i1] = sr1 + si3;
+                    im[i1] = si1 - sr3;
+                    re[i3] = sr1 - si3;
+                    im[i3] = si1 + sr3;
+                }
+            }
+        }
+    }
+
+    private void split(float[] real, float[] img)
+    {
+        float[] re = work_real;
+        float[] im = work_img;
+
+        real[0] = re[0] + im[0];
+        img[0] = 0.0f;
+        real[half] = re[0] - im[0];
+        img[half] = 0.0f;
+
+        for (int k = 1; k < half; ++k) {
+            int nk = half - k;
+            float er = (re[k] + re[nk]) * 0.5f;
+            float ei = (im[k] - im[nk]) * 0.5f;
+            float or = (im[k] + im[nk]) * 0.5f;
+            float oi = (re[nk] - re[k]) * 0.5f;
+            float c = twiddle_cos[k];
+            float s = twiddle_sin[k];
+            real[k] = er + or * c + oi * s;
+            img[k] = ei + oi * c - or * s;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+public class FloatSpectrum extends SpectrumEngine {
+    private FloatFFT fft;
+    private float[] frame;
+    private float[] hannWindow;
+    private int windowLength = 0;
+    private float[] spectrum_real;
+    private float[] spectrum_img;
+
+    FloatSpectrum(int fftExp)
+    {
+        fft = new FloatFFT(fftExp);
+        int size = fft.size();
+        frame = new float[size];
+        hannWindow = new float[size];
+        spectrum_real = new float[size / 2 + 1];
+        spectrum_img = new float[size / 2 + 1];
+    }
+
+    @Override
+    int size()
+    {
+        return fft.size();
+    }
+
+    @Override
+    void load(SampleRing ring, long start, int length)
+    {
+        short[] samples = ring.data();
+        int mask = ring.mask();
+        int offset = (int) start;
+        int size = fft.size();
+
+        if (length != windowLength) {
+            for (int i = 0; i < length; ++i) {
+                hannWindow[i] = (float) hann(i, length);
+            }
+            windowLength = length;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            frame[i] = samples[(offset + i) & mask] * hannWindow[i];
+        }
+
+        for (int i = length; i < size; ++i) {
+            frame[i] = 0.0f;
+        }
+    }
+
+    @Override
+    void transform()
+    {
+        fft.realForward(frame, spectrum_real, spectrum_img);
+    }
+
+    @Override
+    double power(int bin)
+    {
+        return spectrum_real[bin] * spectrum_real[bin] + spectrum_img[bin] * spectrum_img[bin];
+    }
+}
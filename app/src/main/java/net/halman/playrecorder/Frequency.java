@@ -17,13 +17,19 @@
 
 package net.halman.playrecorder;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.os.Handler;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
 /*
- * This code detects sound frequency (AKA pitch detection) using fast Fourier transformation
+ * This code detects sound frequency (AKA pitch detection) using fast Fourier transformation,
+ * the time domain McLeod pitch method (see McLeodPitchDetector) or a bank of filters tuned
+ * to the notes of the instrument (see GoertzelPitchDetector, also as sliding DFTs updated
+ * every few milliseconds) or a constant-Q transform (see ConstantQPitchDetector) or by a vote
+ * of the spectral estimators and the McLeod detector running in parallel (see
+ * VotingPitchDetector)
  * Credit to the other sources and authors
  *
  * android example of recorder https://stackoverflow.com/questions/8499042/android-audiorecord-example
@@ -32,183 +38,509 @@ import android.os.Handler;
  */
 
 public class Frequency implements Runnable {
-    public static final int MSG_FREQUENCY = 1;
-
-    private int sampleRate = 8000;
-    private int freq100 = 0;
-    private short[] buffer;
-    private double[] buffer_real;
-    private double[] buffer_img;
-    private double[] hannWindow = null;
-    private int bufferSize;
-    private AudioRecord audioInput;
-
-    private int FFT_SIZE = 8192;
-    private int FFT_EXP = 13;
-    private int[] fft_bitreverse = null;
+    public static final int MSG_NOTE = 1;
+    // the noise profile of the room was learned
+    public static final int MSG_NOISE = 2;
+
+    public static final int PRECISION_DOUBLE = 0;
+    public static final int PRECISION_FLOAT = 1;
+    public static final int PRECISION_FIXED = 2;
+
+    public static final int DETECTOR_SPECTRUM = 0;
+    public static final int DETECTOR_MCLEOD = 1;
+    public static final int DETECTOR_GOERTZEL = 2;
+    public static final int DETECTOR_CONSTANT_Q = 3;
+    public static final int DETECTOR_SLIDING = 4;
+    public static final int DETECTOR_VOTING = 5;
+
+    // capture queue of more than a second
+    private static final int QUEUE_BLOCKS = 128;
+    private static final long WAIT_NANOS = 5000000L;
+    // seconds of room tone for the noise profile
+    private static final double NOISE_SECONDS = 3;
+
+    // the most recent samples, at least the longest analysed frame and its hop
+    private SampleRing ring = null;
+    private AudioSource audioInput = null;
+    // the microphone is created for the capture rate of the configuration
+    private boolean microphone;
+    private BlockQueue queue = null;
+    private int blockOffset = 0;
+    private Decimator decimator = null;
+    // band of the instrument, shared by the decimators of all configurations
+    private BiquadChain filter = new BiquadChain();
+    private GainControl gain = new GainControl();
+    // filter stages of the analysed samples, in order (see AnalysisConfig.stages())
+    private SampleFilter[] stages = {};
+    // input was clipped since the last frame
+    private boolean clipped = false;
+    private EnergyGate gate = null;
+    private NoteSegmenter segmenter = null;
+    // capture sample clock, samples read from the queue
+    private long clock = 0;
+    // the last message was the end of the signal
+    private boolean silence = false;
+    // samples since the last frame of the segmenter, which runs at the regular hop
+    private int segmentDelay = 0;
+    // noise profile subtracted by the spectrum detectors, the one being learned
+    private NoiseProfile noise = null;
+    private NoiseProfile learning = null;
+    private long learningEnd = 0;
+    private volatile boolean learnNoise = false;
+    private AudioCapture capture = null;
+    private Thread captureThread = null;
+    private int reportedDropped = 0;
+    private int reportedOverruns = 0;
+
+    private int precision;
+    private AnalysisConfig config = null;
+    private volatile AnalysisConfig pendingConfig = null;
+    // spectrum detectors for FFT exponents config.minFftExp() .. config.maxFftExp()
+    private SpectrumPitchDetector[] spectrumDetectors;
+    // the same spectrum frames read by all spectral estimators, for the vote
+    private SpectrumPitchDetector[] votingSpectrumDetectors;
+    private PitchDetector mcleodDetector;
+    private PitchDetector goertzelDetector;
+    private PitchDetector constantQDetector;
+    private GoertzelPitchDetector slidingDetector;
+    private VotingPitchDetector votingDetector = null;
+    private volatile int detectorType = DETECTOR_SPECTRUM;
+    private double lastPitch = 0;
     private Handler messageHandler;
+    private PitchMailbox mailbox = new PitchMailbox();
+    private PitchSmoother smoother = new PitchSmoother();
 
-    public Frequency(Handler h)
+    public Frequency(Handler h, AnalysisConfig c)
+    {
+        this(h, c, PRECISION_DOUBLE);
+    }
+
+    public Frequency(Handler h, AnalysisConfig c, int p)
     {
         messageHandler = h;
-        int minSize = 2 * AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO,  AudioFormat.ENCODING_PCM_16BIT);
-        bufferSize = minSize < FFT_SIZE ? FFT_SIZE : minSize;
-        buffer = new short[bufferSize];
-        buffer_real = new double[bufferSize];
-        buffer_img = new double[bufferSize];
-        buildHannWindow();
-        initFFT();
-        audioInput = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
-    }
-
-    private void initFFT()
-    {
-        fft_bitreverse = new int[FFT_SIZE];
-
-        for (int i = (1 << FFT_EXP) - 1; i >= 0; --i) {
-            int k = 0;
-            for (int j = 0; j < FFT_EXP; ++j) {
-                k *= 2;
-                if ((i & ( 1 << j )) != 0) {
-                    k += 1;
-                }
-            }
-            fft_bitreverse[i] = k;
+        precision = p;
+        microphone = true;
+        setup(c);
+    }
+
+    public Frequency(Handler h, AudioSource source, AnalysisConfig c)
+    {
+        this(h, source, c, PRECISION_DOUBLE);
+    }
+
+    /*
+     * Analyse the given source (e.g. a recording), the capture rate of the configuration
+     * must be the rate of the source
+     */
+    public Frequency(Handler h, AudioSource source, AnalysisConfig c, int p)
+    {
+        if (source.sampleRate() != c.captureRate()) {
+            throw new IllegalArgumentException("Sample rate of the source differs from the capture rate");
         }
+        messageHandler = h;
+        precision = p;
+        microphone = false;
+        audioInput = source;
+        setup(c);
+    }
+
+    /*
+     * The latest pitch frame, updated after every frame
+     */
+    public PitchMailbox mailbox()
+    {
+        return mailbox;
+    }
+
+    /*
+     * Smoothing of the published pitch, can be configured while running
+     */
+    public PitchSmoother smoother()
+    {
+        return smoother;
     }
 
-    private void applyFFT()
+    public int detector()
     {
+        return detectorType;
+    }
 
-        int n, n2, i, k, kn2, l, p;
-        double ang, s, c, tr, ti;
-        for(i = 0; i < FFT_SIZE; ++i) {
-            buffer_img[i] = 0.0;
+    /*
+     * Select the pitch detector, can be called while running, the change is applied
+     * to the next frame
+     */
+    public void detector(int type)
+    {
+        if (type >= DETECTOR_SPECTRUM && type <= DETECTOR_VOTING) {
+            detectorType = type;
         }
+    }
 
-        n = 1 << FFT_EXP;
-        n2 = n / 2;
+    /*
+     * Change the analysis parameters (e.g. for another instrument), can be called while
+     * running, the change is applied to the next frame
+     */
+    public void configure(AnalysisConfig c)
+    {
+        if (!microphone && c.captureRate() != audioInput.sampleRate()) {
+            throw new IllegalArgumentException("Sample rate of the source differs from the capture rate");
+        }
+        pendingConfig = c;
+    }
 
+    /*
+     * Learn the noise of the room from the next few seconds, nobody should play meanwhile.
+     * MSG_NOISE is sent when the profile is used.
+     */
+    public void learnNoise()
+    {
+        learnNoise = true;
+    }
 
-        for (l = 0; l < FFT_EXP; ++l) {
-            for (k = 0; k < n; k += n2) {
-                for(i = 0; i < n2; ++i, ++k) {
-                    p = fft_bitreverse[k / n2];
-                    ang = Math.PI * 2 * p / n;
-                    c = Math.cos(ang);
-                    s = Math.sin(ang);
+    /*
+     * Number of captured blocks thrown away because the analysis did not keep up
+     */
+    public int droppedBlocks()
+    {
+        AudioCapture c = capture;
+        return c == null ? 0 : c.droppedBlocks();
+    }
 
-                    kn2 = k + n2;
-                    // if (inversion_transformation) { s = -s; }
+    /*
+     * Number of probable overruns of the audio source (the capture thread did not read in time)
+     */
+    public int overruns()
+    {
+        AudioCapture c = capture;
+        return c == null ? 0 : c.overruns();
+    }
 
-                    tr = buffer_real[kn2] * c + buffer_img[kn2] * s;
-                    ti = buffer_img[kn2] * c - buffer_real[kn2] * s;
-                    buffer_real[kn2] = buffer_real[k] - tr;
-                    buffer_img[kn2] = buffer_img[k] - ti;
-                    buffer_real[k] += tr;
-                    buffer_img[k] += ti;
-                }
+    /*
+     * Create detectors for the configuration, returns true when the audio input was replaced
+     */
+    private boolean setup(AnalysisConfig c)
+    {
+        int sampleRate = c.sampleRate();
+        boolean newInput = config == null || config.captureRate() != c.captureRate();
+        boolean newRate = config == null || config.sampleRate() != sampleRate;
+
+        spectrumDetectors = new SpectrumPitchDetector[c.maxFftExp() - c.minFftExp() + 1];
+        votingSpectrumDetectors = new SpectrumPitchDetector[spectrumDetectors.length];
+        int[] estimators = c.estimators();
+        for (int exp = c.minFftExp(); exp <= c.maxFftExp(); ++exp) {
+            SpectrumFrame frame = new SpectrumFrame(SpectrumEngine.create(precision, exp), sampleRate);
+            SpectrumPitchDetector d = new SpectrumPitchDetector(frame, estimator(estimators[0], exp, sampleRate));
+            d.range(c.lowest(), c.highest());
+            spectrumDetectors[exp - c.minFftExp()] = d;
+            SpectrumEstimator[] votes = new SpectrumEstimator[estimators.length];
+            for (int i = 0; i < estimators.length; ++i) {
+                votes[i] = estimator(estimators[i], exp, sampleRate);
             }
-            n2 /= 2;
+            d = new SpectrumPitchDetector(frame, votes);
+            d.range(c.lowest(), c.highest());
+            votingSpectrumDetectors[exp - c.minFftExp()] = d;
+        }
+        mcleodDetector = new McLeodPitchDetector(sampleRate, c.mcleodExp());
+        mcleodDetector.range(c.lowest(), c.highest());
+        goertzelDetector = new GoertzelPitchDetector(sampleRate);
+        goertzelDetector.range(c.lowest(), c.highest());
+        constantQDetector = new ConstantQPitchDetector(sampleRate);
+        constantQDetector.range(c.lowest(), c.highest());
+        slidingDetector = new GoertzelPitchDetector(sampleRate);
+        slidingDetector.range(c.lowest(), c.highest());
+        slidingDetector.sliding(true);
+        // the pool threads of the old detectors are not needed any more
+        if (votingDetector != null) {
+            votingDetector.release();
+        }
+        votingDetector = new VotingPitchDetector(votingSpectrumDetectors[0], mcleodDetector);
+        segmenter = new NoteSegmenter(sampleRate, c.lowest(), c.highest());
+        // a stage left out keeps its neutral state (e.g. the gain of one)
+        filter.configure(c);
+        gain.configure(c);
+        int[] types = c.stages();
+        SampleFilter[] chain = new SampleFilter[types.length];
+        for (int i = 0; i < types.length; ++i) {
+            chain[i] = types[i] == AnalysisConfig.STAGE_GAIN ? gain : filter;
+        }
+        boolean newStages = !Arrays.equals(chain, stages);
+        stages = chain;
+        // the noise profile holds for the same analysis rate and filter (the pre-emphasis
+        // lifts the noise above its shelf)
+        if (newRate || newStages || config.lowest() != c.lowest() || config.highest() != c.highest()
+                || config.preEmphasis() != c.preEmphasis()) {
+            noise = null;
+            learning = null;
+        }
+        for (SpectrumPitchDetector d : spectrumDetectors) {
+            d.noise(noise);
         }
+        config = c;
+        lastPitch = 0;
 
-        for ( k = 0; k < n; ++k ) {
-            i = fft_bitreverse[k];
-            if ( i <= k )
-                continue;
-            tr = buffer_real[k];
-            ti = buffer_img[k];
-            buffer_real[k] = buffer_real[i];
-            buffer_img[k] = buffer_img[i];
-            buffer_real[i] = tr;
-            buffer_img[i] = ti;
-        }
-
-        // Finally, multiply each value by 1/n, if this is the forward transform.
-        // if (! inversion_transformation)
-        {
-            double f;
-
-            f = 1.0 / n;
-            for( i = 0; i < n ; ++i ) {
-                buffer_real[i] *= f;
-                buffer_img[i] *= f;
+        int frameSize = Math.max(Math.max(c.maxWindowLength(), 1 << c.mcleodExp()), goertzelDetector.frameLength());
+        frameSize = Math.max(frameSize, Math.max(constantQDetector.frameLength(), segmenter.frameLength()));
+        if (newRate || ring.capacity() < 2 * frameSize) {
+            ring = new SampleRing(2 * frameSize);
+        }
+        if (newRate || newInput || newStages) {
+            decimator = new Decimator(c.decimation(), c.blockSize(), stages);
+        }
+        if (newRate || newInput) {
+            gate = new EnergyGate(sampleRate);
+        }
+
+        if (newInput) {
+            stopCapture();
+            int blockSize = c.blockSize();
+            if (microphone) {
+                if (audioInput != null) {
+                    audioInput.release();
+                }
+                audioInput = new MicrophoneSource(c.captureRate(), 4 * blockSize);
             }
+            queue = new BlockQueue(QUEUE_BLOCKS, blockSize);
+            blockOffset = 0;
         }
+
+        return newInput;
     }
 
-    private void buildHannWindow()
+    private static SpectrumEstimator estimator(int type, int fftExp, int rate)
     {
-        hannWindow = new double[bufferSize];
-        for (int i = 0; i < bufferSize; ++i) {
-            hannWindow[i] = .5 * (1 - Math.cos(2 * Math.PI * i / (bufferSize - 1.0)));
+        if (type == AnalysisConfig.ESTIMATOR_PEAK) {
+            return new PeakEstimator(1 << fftExp, rate);
         }
+        return new HarmonicEstimator(1 << fftExp, rate);
     }
 
-    private void recordSample() {
-        // keep half of the recording to make the update smoother
-        System.arraycopy(buffer, bufferSize/2, buffer, 0, bufferSize/2);
-        audioInput.read(buffer, bufferSize/2, bufferSize/2);
+    private void startCapture()
+    {
+        capture = new AudioCapture(audioInput, queue, Thread.currentThread());
+        audioInput.start();
+        captureThread = new Thread(capture, "PlayRecorder capture");
+        captureThread.start();
     }
 
-    private void lowPass()
+    private void stopCapture()
     {
-        int lastInput = 0;
+        if (captureThread == null) {
+            return;
+        }
+
+        captureThread.interrupt();
+        // unblocks the pending read
+        audioInput.stop();
+        // join must not see the interrupt of this thread
+        boolean interrupted = Thread.interrupted();
+        try {
+            captureThread.join();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        captureThread = null;
 
-        for(int i = 0; i < bufferSize; ++i) {
-            double output = (lastInput + buffer[i]) / 2.0;
-            lastInput = buffer[i];
-            buffer_real[i] = output;
-            buffer_img[i] = 0.0;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void applyWindow()
+    private void reportLosses()
     {
-        for(int i = 0; i < bufferSize; ++i) {
-            buffer_real[i] *= hannWindow[i];
+        int dropped = capture.droppedBlocks();
+        int overruns = capture.overruns();
+        if (dropped != reportedDropped || overruns != reportedOverruns) {
+            Log.w("FREQUENCY", "Audio capture lost data, dropped blocks: " + dropped + ", overruns: " + overruns);
+            reportedDropped = dropped;
+            reportedOverruns = overruns;
         }
     }
 
-    private double peak()
+    private PitchDetector currentDetector()
     {
-        //find the peak
-        double maxVal = -1;
-        int maxIndex = -1;
-        for( int j=0; j<FFT_SIZE/2; ++j ) {
-            double v = buffer_real[j] * buffer_real[j] + buffer_img[j] * buffer_img[j] ;
-            if( v > maxVal ) {
-                maxVal = v;
-                maxIndex = j;
+        switch (detectorType) {
+            case DETECTOR_MCLEOD:
+                return mcleodDetector;
+            case DETECTOR_GOERTZEL:
+                return goertzelDetector;
+            case DETECTOR_CONSTANT_Q:
+                return constantQDetector;
+            case DETECTOR_SLIDING:
+                return slidingDetector;
+        }
+
+        int length = config.windowLength(lastPitch);
+        int index = config.fftExp(length) - config.minFftExp();
+        if (detectorType == DETECTOR_VOTING) {
+            // the spectral votes follow the window of the spectrum detector
+            votingSpectrumDetectors[index].frameLength(length);
+            votingDetector.spectrum(votingSpectrumDetectors[index]);
+            return votingDetector;
+        }
+
+        SpectrumPitchDetector detector = spectrumDetectors[index];
+        detector.frameLength(length);
+        return detector;
+    }
+
+    /*
+     * Decimate captured samples from the queue to the ring until count new samples are
+     * in the ring, waits for the capture thread. Returns false at the end of the source.
+     */
+    private boolean recordSample(int count) throws InterruptedException {
+        // older samples stay in the ring and overlap with the next frame
+        while (count > 0) {
+            if (queue.isEmpty()) {
+                if (capture.failed()) {
+                    throw new IllegalStateException("Audio source read error");
+                }
+                if (capture.finished() && queue.isEmpty()) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, WAIT_NANOS);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                continue;
+            }
+
+            int length = queue.frontLength();
+            int n = Math.min(decimator.inputLength(count), length - blockOffset);
+            int written = decimator.process(queue.front(), blockOffset, n, ring);
+            gate.add(ring, written);
+            count -= written;
+            blockOffset += n;
+            clock += n;
+            if (blockOffset == length) {
+                queue.release();
+                blockOffset = 0;
             }
         }
+        return true;
+    }
+
+    /*
+     * Seconds of the capture clock
+     */
+    private double time()
+    {
+        return clock / (double) config.captureRate();
+    }
 
-        return (sampleRate * maxIndex) / (double)( FFT_SIZE );
+    private void publish(double pitch, double confidence)
+    {
+        PitchFrame frame = mailbox.claim();
+        smoother.filter(pitch, confidence, clock, config.captureRate(), frame);
+        frame.clipped(clipped);
+        mailbox.publish();
+    }
+
+    /*
+     * Add the frame to the noise profile while learning, returns true while learning
+     */
+    private boolean learn()
+    {
+        if (learnNoise) {
+            learnNoise = false;
+            learning = new NoiseProfile(config.sampleRate(), config.maxFftExp(), config.maxWindowLength());
+            learningEnd = clock + (long) (NOISE_SECONDS * config.captureRate());
+        }
+        if (learning == null) {
+            return false;
+        }
+
+        learning.add(ring, ring.position(), gain.gain());
+        if (clock < learningEnd) {
+            return true;
+        }
+
+        noise = learning;
+        learning = null;
+        for (SpectrumPitchDetector d : spectrumDetectors) {
+            d.noise(noise);
+        }
+        if (messageHandler != null) {
+            messageHandler.sendEmptyMessage(MSG_NOISE);
+        }
+        return false;
+    }
+
+    private void sendNote(NoteEvent event)
+    {
+        if (event != null && messageHandler != null) {
+            messageHandler.sendMessage(messageHandler.obtainMessage(MSG_NOTE, event));
+        }
     }
 
     public void run() {
         try {
-            audioInput.startRecording();
-            recordSample();
+            startCapture();
             while (!Thread.currentThread().isInterrupted()) {
-                recordSample();
-                lowPass();
-                applyWindow();
-                applyFFT();
-                int newFreq100 = (int) (peak() * 100);
-
-                freq100 = newFreq100;
-                if (messageHandler != null) {
-                    messageHandler.sendMessage(messageHandler.obtainMessage(MSG_FREQUENCY, freq100, 0));
+                AnalysisConfig c = pendingConfig;
+                if (c != null) {
+                    pendingConfig = null;
+                    if (setup(c)) {
+                        startCapture();
+                    }
+                }
+
+                PitchDetector detector = currentDetector();
+                int length = detector.frameLength();
+
+                int hop = detector == slidingDetector ? config.slidingHop() : config.hop(length);
+                segmentDelay += hop;
+                boolean segment = segmentDelay >= config.hop(length);
+                if (segment) {
+                    segmentDelay = 0;
+                }
+                if (!recordSample(hop)) {
+                    // the last note ends with the source
+                    sendNote(segmenter.frame(ring, time(), 0, false, 0));
+                    break;
+                }
+                reportLosses();
+                clipped = decimator.clipped() > 0;
+                boolean open = gate.update();
+                // room tone is not analysed
+                if (learn() || !open) {
+                    if (segment) {
+                        sendNote(segmenter.frame(ring, time(), 0, false, gate.rms()));
+                    }
+                    // nothing to analyse, a single frame for the whole silence
+                    lastPitch = 0;
+                    if (!silence) {
+                        smoother.reset();
+                        publish(0, 0);
+                    }
+                    silence = true;
+                    continue;
+                }
+
+                // analyse the most recent samples
+                silence = false;
+                if (noise != null) {
+                    for (SpectrumPitchDetector d : spectrumDetectors) {
+                        d.noiseGain(gain.gain());
+                    }
+                }
+                lastPitch = detector.detect(ring, ring.position() - length);
+                double confidence = detector.confidence();
+                publish(lastPitch, confidence);
+                if (segment) {
+                    // the pitch of noise does not split or tune the notes, as in the UI
+                    double pitch = confidence < PitchSmoother.MIN_CONFIDENCE ? 0 : lastPitch;
+                    sendNote(segmenter.frame(ring, time(), pitch, true, gate.rms()));
                 }
             }
         } catch (Exception e) {
-            freq100 = 0;
+            lastPitch = 0;
         }
 
-        if (messageHandler != null) {
-            messageHandler.sendMessage(messageHandler.obtainMessage(MSG_FREQUENCY, 0, 0));
+        publish(0, 0);
+        stopCapture();
+        if (votingDetector != null) {
+            votingDetector.release();
         }
-        audioInput.stop();
+        audioInput.release();
     }
 }
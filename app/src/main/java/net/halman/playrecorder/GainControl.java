@@ -0,0 +1,104 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Automatic gain control of the analysed samples
+ *
+ * A peak envelope (fast attack, slow release) of the signal sets the gain which brings the
+ * envelope to TARGET, the gain follows quickly down and slowly up, so a note keeps its shape
+ * and the gain does not pump between the notes. Quiet signals are not lifted: under FLOOR
+ * (near the level of EnergyGate) the gain is one and it grows with the level above it, the
+ * noise of the room stays under the gate. The rising gain meets TARGET / envelope at the
+ * envelope sqrt(FLOOR * TARGET) (about -27 dBFS), so the gain is at most sqrt(TARGET / FLOOR),
+ * about 5.6. The levels seen by the detectors, the gate and the segmenter then depend less
+ * on the player and the microphone.
+ */
+
+public class GainControl implements SampleFilter {
+    // about -12 dBFS
+    private static final double TARGET = 8192;
+    // about -42 dBFS
+    private static final double FLOOR = 260;
+    private static final double MIN_GAIN = 0.25;
+    // seconds of the envelope
+    private static final double ENVELOPE_ATTACK = 0.005;
+    private static final double ENVELOPE_RELEASE = 0.2;
+    // seconds of the gain
+    private static final double ATTACK = 0.01;
+    private static final double RELEASE = 0.5;
+
+    private boolean enabled = true;
+    private double envelopeAttack;
+    private double envelopeRelease;
+    private double attack;
+    private double release;
+    private double envelope = 0;
+    private double gain = 1;
+
+    private static double coefficient(double seconds, int rate)
+    {
+        return 1 - Math.exp(-1 / (seconds * rate));
+    }
+
+    /*
+     * Set the time constants for the analysis rate of the configuration, the gain is reset
+     */
+    @Override
+    public void configure(AnalysisConfig c)
+    {
+        int rate = c.sampleRate();
+        enabled = c.automaticGain();
+        envelopeAttack = coefficient(ENVELOPE_ATTACK, rate);
+        envelopeRelease = coefficient(ENVELOPE_RELEASE, rate);
+        attack = coefficient(ATTACK, rate);
+        release = coefficient(RELEASE, rate);
+        envelope = 0;
+        gain = 1;
+    }
+
+    /*
+     * Current gain
+     */
+    double gain()
+    {
+        return gain;
+    }
+
+    /*
+     * Amplify the next sample
+     */
+    @Override
+    public double process(double x)
+    {
+        if (!enabled) {
+            return x;
+        }
+
+        double level = Math.abs(x);
+        envelope += (level > envelope ? envelopeAttack : envelopeRelease) * (level - envelope);
+
+        double target = 1;
+        if (envelope > FLOOR) {
+            target = Math.max(MIN_GAIN, Math.min(envelope / FLOOR, TARGET / envelope));
+        }
+        gain += (target < gain ? attack : release) * (target - gain);
+
+        return x * gain;
+    }
+}
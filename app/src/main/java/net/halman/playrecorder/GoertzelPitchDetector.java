@@ -0,0 +1,615 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Bank of Goertzel filters tuned to the notes of the instrument
+ *
+ * Every playable note (equal temperament, a4 = 440 Hz) and the notes above the range, where
+ * the harmonics of the highest notes are, get a filter. Each note is analysed over PERIODS
+ * of its own periods (Hann window), so higher notes take fewer samples. The main lobe of
+ * such a filter reaches the next notes, so the note is chosen by sub-harmonic summation over
+ * the note magnitudes (see HarmonicSummation) and the pitch is refined by the ratio of the
+ * filters of the next notes, from the response of the Hann window. The bank starts a note
+ * below the range to have both neighbours of the lowest note.
+ *
+ * The filters of the low notes would be long, so the frame is decimated by two (half band
+ * low pass) once per octave and every note is filtered at the lowest of these rates which
+ * keeps MIN_SAMPLES samples per period, the filters of all notes are then a few tens to
+ * a few hundred samples long. For a recorder this is a few tens of filters, there is no FFT,
+ * no bit reversal and no spectrum outside of the instrument range.
+ *
+ * In the sliding mode the filters are sliding DFTs: every filter keeps the sums of its
+ * window and only the samples added to the ring since the last frame (and the ones leaving
+ * the windows) are processed, so the cost follows the hop instead of the window length.
+ * The Hann window is applied in frequency, as the sliding sums at the filter frequency and
+ * at a bin of the window below and above it. The sums are recomputed from the samples once
+ * in RESYNC seconds (a few notes in every frame) against the drift of the rounding errors.
+ */
+
+public class GoertzelPitchDetector implements PitchDetector {
+    private static final double TINY = 1e-12;
+    // periods of a note in its filter, a bin of the filter is about a semitone
+    private static final int PERIODS = 16;
+    // semitones from a fundamental to its harmonics 1 .. 5
+    private static final int[] HARMONIC_STEPS = {0, 12, 19, 24, 28};
+    private static final double DECAY = 0.84;
+    // highest filter relative to the sample rate
+    private static final double LIMIT = 0.45;
+    // seconds between the recomputations of the sliding sums of a note
+    private static final double RESYNC = 1.0;
+    // halvings of the interval searched for the pitch between the neighbours
+    private static final int BISECTION = 16;
+    // samples per period of a note at the rate it is filtered at, at least
+    private static final int MIN_SAMPLES = 4;
+    // half band low pass of the decimation, taps 0, 1, 3 and 5 (the even ones are zero),
+    // passes 0 .. 1/8 of the rate (where the notes of the next level are) and stops from 3/8
+    private static final float HALF_0 = 0.5f;
+    private static final float HALF_1 = 150 / 512f;
+    private static final float HALF_3 = -25 / 512f;
+    private static final float HALF_5 = 3 / 512f;
+
+    private int sampleRate;
+    // semitones from a4 of the first note of the bank
+    private int firstNote;
+    // notes 1 .. candidates - 1 of the bank can be the result, the rest is only a neighbour
+    // or for the harmonics
+    private int candidates;
+    private int length;
+    private double confidence = 0;
+    // per note of the bank, samples of its window at the sample rate
+    private int[] noteLength;
+    // the rate the note is filtered at is the sample rate halved level times
+    private int[] level;
+    private float[][] window;
+    // the filters have different lengths, 1 / sum of the window (and of the response of the
+    // decimation), for the sliding filters 1 / sum of the full rate window
+    private double[] gain;
+    private double[] slidingGain;
+    // white noise passes longer filters less, 1 / noise power of the normalized filter
+    private double[] whitening;
+    private double[] slidingWhitening;
+    private float[] coeff;
+    // the frame decimated level times, the last samples of all levels are at the frame end
+    private float[][] decimated;
+    private double[] power;
+    private double[] magnitude;
+    private double[] weight = new double[HARMONIC_STEPS.length];
+
+    private boolean sliding = false;
+    // sliding sums of the three components of the filters of the notes, 3 * note + component
+    // (window bin below, filter, window bin above), the phases are relative to the start
+    // of the window
+    private double[] sumReal;
+    private double[] sumImg;
+    // rotation by one sample and the phase of the last sample of the window
+    private double[] stepReal;
+    private double[] stepImg;
+    private double[] lastReal;
+    private double[] lastImg;
+    // ring position of the window ends at the last frame
+    private long slid = -1;
+    private int nextSync = 0;
+    // notes waiting for the resync
+    private double syncDebt = 0;
+
+    GoertzelPitchDetector(int rate)
+    {
+        sampleRate = rate;
+        double w = 1.0;
+        for (int h = 0; h < weight.length; ++h) {
+            weight[h] = w;
+            w *= DECAY;
+        }
+        range(0, 0);
+    }
+
+    private static double noteFrequency(double cents)
+    {
+        return 440 * Math.pow(2, cents / 1200);
+    }
+
+    /*
+     * Response of the half band low pass at the angular frequency w
+     */
+    static double halfBand(double w)
+    {
+        return HALF_0 + 2 * (HALF_1 * Math.cos(w) + HALF_3 * Math.cos(3 * w) + HALF_5 * Math.cos(5 * w));
+    }
+
+    @Override
+    public int frameLength()
+    {
+        return length;
+    }
+
+    /*
+     * Samples processed by the filters and the decimation for a frame (not sliding)
+     */
+    int cost()
+    {
+        int samples = 0;
+        for (float[] w : window) {
+            samples += w.length;
+        }
+        for (float[] x : decimated) {
+            samples += x.length;
+        }
+        return samples;
+    }
+
+    boolean sliding()
+    {
+        return sliding;
+    }
+
+    /*
+     * Update the filters sample by sample instead of running them over every frame, cheaper
+     * for hops much shorter than the frame
+     */
+    void sliding(boolean s)
+    {
+        sliding = s;
+        slid = -1;
+    }
+
+    @Override
+    public void range(double lowest, double highest)
+    {
+        if (lowest <= 0 || highest <= lowest) {
+            // a soprano recorder
+            lowest = 523.25;
+            highest = 2349.32;
+        }
+
+        firstNote = (int) Math.ceil(12 * Math.log(lowest / 440) / Math.log(2)) - 1;
+        int lastNote = (int) Math.floor(12 * Math.log(Math.min(highest, LIMIT * sampleRate) / 440) / Math.log(2));
+        candidates = Math.max(2, lastNote - firstNote + 1);
+        int notes = candidates + HARMONIC_STEPS[HARMONIC_STEPS.length - 1];
+        while (notes > candidates && noteFrequency(100 * (firstNote + notes - 1)) > LIMIT * sampleRate) {
+            --notes;
+        }
+
+        noteLength = new int[notes];
+        level = new int[notes];
+        window = new float[notes][];
+        gain = new double[notes];
+        slidingGain = new double[notes];
+        whitening = new double[notes];
+        slidingWhitening = new double[notes];
+        coeff = new float[notes];
+        power = new double[notes];
+        magnitude = new double[notes];
+
+        length = 0;
+        int levels = 1;
+        for (int n = 0; n < notes; ++n) {
+            double f = noteFrequency(100 * (firstNote + n));
+            noteLength[n] = (int) Math.ceil(PERIODS * sampleRate / f);
+            length = Math.max(length, noteLength[n]);
+            double sum = windowSum(noteLength[n], false);
+            slidingGain[n] = 1 / sum;
+            slidingWhitening[n] = sum * sum / windowSum(noteLength[n], true);
+
+            int k = 0;
+            double response = 1;
+            while (sampleRate / (double) (2 << k) >= MIN_SAMPLES * f) {
+                response *= halfBand(2 * Math.PI * f * (1 << k) / sampleRate);
+                ++k;
+            }
+            level[n] = k;
+            levels = Math.max(levels, k + 1);
+
+            double rate = sampleRate / (double) (1 << k);
+            int l = (int) Math.ceil(PERIODS * rate / f);
+            window[n] = new float[l];
+            for (int i = 0; i < l; ++i) {
+                window[n][i] = (float) SpectrumEngine.hann(i, l);
+            }
+            sum = windowSum(l, false);
+            gain[n] = 1 / (sum * response);
+            // decimation keeps the noise density, the variance is halved at every level
+            whitening[n] = (1 << k) * sum * sum / windowSum(l, true);
+            coeff[n] = (float) (2 * Math.cos(2 * Math.PI * f / rate));
+        }
+
+        // every level holds the longest window at its rate and the samples of the next one
+        decimated = new float[levels][];
+        int size = 0;
+        for (int k = levels - 1; k >= 0; --k) {
+            size *= 2;
+            for (int n = 0; n < notes; ++n) {
+                if (level[n] == k) {
+                    size = Math.max(size, window[n].length);
+                }
+            }
+            decimated[k] = new float[size];
+        }
+        length = Math.max(length, size);
+
+        slidingSetup();
+    }
+
+    /*
+     * Sum of the Hann window of l samples or of its squares
+     */
+    private static double windowSum(int l, boolean squares)
+    {
+        double sum = 0;
+        for (int i = 0; i < l; ++i) {
+            double w = SpectrumEngine.hann(i, l);
+            sum += squares ? w * w : w;
+        }
+        return sum;
+    }
+
+    private void slidingSetup()
+    {
+        int notes = noteLength.length;
+        int components = 3 * notes;
+        sumReal = new double[components];
+        sumImg = new double[components];
+        stepReal = new double[components];
+        stepImg = new double[components];
+        lastReal = new double[components];
+        lastImg = new double[components];
+        slid = -1;
+        nextSync = 0;
+        syncDebt = 0;
+
+        for (int n = 0; n < notes; ++n) {
+            int l = noteLength[n];
+            // the window of SpectrumEngine.hann() has a period of l - 1 samples
+            double bin = 2 * Math.PI / (l - 1);
+            double omega = 2 * Math.PI * noteFrequency(100 * (firstNote + n)) / sampleRate;
+            for (int c = 0; c < 3; ++c) {
+                int k = 3 * n + c;
+                double w = omega + (c - 1) * bin;
+                stepReal[k] = Math.cos(w);
+                stepImg[k] = Math.sin(w);
+                lastReal[k] = Math.cos(w * (l - 1));
+                lastImg[k] = -Math.sin(w * (l - 1));
+            }
+        }
+    }
+
+    private static double power(float s1, float s2, float coeff)
+    {
+        return (double) s1 * s1 + (double) s2 * s2 - (double) coeff * s1 * s2;
+    }
+
+    private static float tap(float[] x, int i)
+    {
+        return i >= 0 && i < x.length ? x[i] : 0;
+    }
+
+    /*
+     * Low pass and decimate in by two to out, the last outputs are at the end of the input,
+     * the samples outside of the input (under the ends of the windows) are taken as zero
+     */
+    static void halve(float[] in, float[] out)
+    {
+        int first = in.length - 2 * out.length + 1;
+        for (int j = 0; j < out.length; ++j) {
+            int i = first + 2 * j;
+            if (i >= 5 && i + 5 < in.length) {
+                out[j] = HALF_0 * in[i] + HALF_1 * (in[i - 1] + in[i + 1])
+                        + HALF_3 * (in[i - 3] + in[i + 3]) + HALF_5 * (in[i - 5] + in[i + 5]);
+            } else {
+                out[j] = HALF_0 * tap(in, i) + HALF_1 * (tap(in, i - 1) + tap(in, i + 1))
+                        + HALF_3 * (tap(in, i - 3) + tap(in, i + 3)) + HALF_5 * (tap(in, i - 5) + tap(in, i + 5));
+            }
+        }
+    }
+
+    /*
+     * Run the filters of all notes over the most recent samples of the frame
+     */
+    private void filter(SampleRing ring, long start)
+    {
+        short[] data = ring.data();
+        int mask = ring.mask();
+        float[] frame = decimated[0];
+        int from = (int) (start + length - frame.length);
+        for (int i = 0; i < frame.length; ++i) {
+            frame[i] = data[(from + i) & mask];
+        }
+        for (int k = 1; k < decimated.length; ++k) {
+            halve(decimated[k - 1], decimated[k]);
+        }
+
+        int notes = noteLength.length;
+        for (int n = 0; n < notes; ) {
+            float[] x = decimated[level[n]];
+            float[] w = window[n];
+            int l = w.length;
+            int first = x.length - l;
+            float c = coeff[n];
+            float s1 = 0, s2 = 0;
+
+            // the filters of two notes of a level share the samples, the longer one runs
+            // alone until the window of the other one starts
+            int together = n + 1 < notes && level[n + 1] == level[n] ? window[n + 1].length : 0;
+            int i = 0;
+            for (; i < l - together; ++i) {
+                float s = x[first + i] * w[i] + c * s1 - s2;
+                s2 = s1;
+                s1 = s;
+            }
+
+            if (together > 0) {
+                float[] v = window[n + 1];
+                float d = coeff[n + 1];
+                float t1 = 0, t2 = 0;
+                for (int j = 0; j < together; ++i, ++j) {
+                    float y = x[first + i];
+                    float s = y * w[i] + c * s1 - s2;
+                    s2 = s1;
+                    s1 = s;
+                    float t = y * v[j] + d * t1 - t2;
+                    t2 = t1;
+                    t1 = t;
+                }
+                power[n + 1] = power(t1, t2, d);
+            }
+            power[n] = power(s1, s2, c);
+            n += together > 0 ? 2 : 1;
+        }
+    }
+
+    /*
+     * Recompute the sliding sums of the note for the window ending at end
+     */
+    private void resync(SampleRing ring, int note, long end)
+    {
+        short[] data = ring.data();
+        int mask = ring.mask();
+        int l = noteLength[note];
+        long from = end - l;
+
+        for (int k = 3 * note; k < 3 * note + 3; ++k) {
+            // e^(-iw) as the rotation of the phase
+            double cr = stepReal[k], ci = -stepImg[k];
+            double sr = 0, si = 0;
+            double pr = 1, pi = 0;
+            for (int i = 0; i < l; ++i) {
+                double x = data[(int) (from + i) & mask];
+                sr += x * pr;
+                si += x * pi;
+                double t = pr * cr - pi * ci;
+                pi = pr * ci + pi * cr;
+                pr = t;
+            }
+            sumReal[k] = sr;
+            sumImg[k] = si;
+        }
+    }
+
+    /*
+     * Slide the windows of the note from from to end:
+     * X(n) = e^(iw) (X(n - 1) - x(n - l)) + e^(-iw(l - 1)) x(n)
+     */
+    private void slide(SampleRing ring, int note, long from, long end)
+    {
+        short[] data = ring.data();
+        int mask = ring.mask();
+        int l = noteLength[note];
+        int first = (int) from;
+        int count = (int) (end - from);
+        int k = 3 * note;
+
+        // the three components of the filter share the samples
+        double r0 = sumReal[k], i0 = sumImg[k];
+        double r1 = sumReal[k + 1], i1 = sumImg[k + 1];
+        double r2 = sumReal[k + 2], i2 = sumImg[k + 2];
+        double cr0 = stepReal[k], ci0 = stepImg[k];
+        double cr1 = stepReal[k + 1], ci1 = stepImg[k + 1];
+        double cr2 = stepReal[k + 2], ci2 = stepImg[k + 2];
+        double tr0 = lastReal[k], ti0 = lastImg[k];
+        double tr1 = lastReal[k + 1], ti1 = lastImg[k + 1];
+        double tr2 = lastReal[k + 2], ti2 = lastImg[k + 2];
+        for (int j = 0; j < count; ++j) {
+            // the ring positions wrap around in int too
+            int i = first + j;
+            double a = data[i & mask];
+            double b = data[(i - l) & mask];
+            double x = r0 - b;
+            r0 = cr0 * x - ci0 * i0 + a * tr0;
+            i0 = cr0 * i0 + ci0 * x + a * ti0;
+            x = r1 - b;
+            r1 = cr1 * x - ci1 * i1 + a * tr1;
+            i1 = cr1 * i1 + ci1 * x + a * ti1;
+            x = r2 - b;
+            r2 = cr2 * x - ci2 * i2 + a * tr2;
+            i2 = cr2 * i2 + ci2 * x + a * ti2;
+        }
+        sumReal[k] = r0;
+        sumImg[k] = i0;
+        sumReal[k + 1] = r1;
+        sumImg[k + 1] = i1;
+        sumReal[k + 2] = r2;
+        sumImg[k + 2] = i2;
+    }
+
+    /*
+     * Hann windowed power of the filter k from its sliding sums
+     */
+    private double slidingPower(int k)
+    {
+        double re = 0.5 * sumReal[k + 1] - 0.25 * (sumReal[k] + sumReal[k + 2]);
+        double im = 0.5 * sumImg[k + 1] - 0.25 * (sumImg[k] + sumImg[k + 2]);
+        return re * re + im * im;
+    }
+
+    /*
+     * Sliding variant of filter()
+     */
+    private void slidingFilter(SampleRing ring, long start)
+    {
+        int notes = noteLength.length;
+        long end = start + length;
+
+        if (slid < 0 || end < slid || end - slid > length) {
+            // first frame or a gap, the windows have nothing in common
+            for (int n = 0; n < notes; ++n) {
+                resync(ring, n, end);
+            }
+        } else {
+            for (int n = 0; n < notes; ++n) {
+                slide(ring, n, slid, end);
+            }
+
+            // a few notes in every frame, all of them once in RESYNC
+            syncDebt = Math.min(notes, syncDebt + notes * (end - slid) / (RESYNC * sampleRate));
+            while (syncDebt >= 1) {
+                resync(ring, nextSync, end);
+                nextSync = (nextSync + 1) % notes;
+                syncDebt -= 1;
+            }
+        }
+        slid = end;
+
+        for (int n = 0; n < notes; ++n) {
+            power[n] = slidingPower(3 * n);
+        }
+    }
+
+    @Override
+    public double detect(SampleRing ring, long start)
+    {
+        if (sliding) {
+            slidingFilter(ring, start);
+        } else {
+            filter(ring, start);
+        }
+
+        int notes = noteLength.length;
+        double[] g = sliding ? slidingGain : gain;
+        for (int n = 0; n < notes; ++n) {
+            magnitude[n] = Math.sqrt(power[n]) * g[n];
+        }
+
+        double bestScore = 0;
+        int best = -1;
+        for (int n = 1; n < candidates; ++n) {
+            double score = 0;
+            for (int h = 0; h < HARMONIC_STEPS.length && n + HARMONIC_STEPS[h] < notes; ++h) {
+                score += weight[h] * magnitude[n + HARMONIC_STEPS[h]];
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = n;
+            }
+        }
+
+        confidence = 0;
+        if (best < 0) {
+            return 0;
+        }
+
+        confidence = harmonicShare(best);
+        return noteFrequency(100 * (firstNote + best) + cents(best));
+    }
+
+    @Override
+    public double confidence()
+    {
+        return confidence;
+    }
+
+    /*
+     * Part of the whitened power of the note filters in the harmonics of note, the main lobe
+     * of a harmonic covers the next notes too. The part white noise would have by chance
+     * is subtracted.
+     */
+    private double harmonicShare(int note)
+    {
+        int notes = noteLength.length;
+        double[] w = sliding ? slidingWhitening : whitening;
+        double total = 0;
+        for (int n = 0; n < notes; ++n) {
+            total += magnitude[n] * magnitude[n] * w[n];
+        }
+
+        double harmonic = 0;
+        int count = 0;
+        for (int h = 0; h < HARMONIC_STEPS.length; ++h) {
+            int c = note + HARMONIC_STEPS[h];
+            for (int n = c - 1; n <= c + 1; ++n) {
+                if (n >= 0 && n < notes) {
+                    harmonic += magnitude[n] * magnitude[n] * w[n];
+                    ++count;
+                }
+            }
+        }
+
+        if (total <= 0) {
+            return 0;
+        }
+        double chance = count / (double) notes;
+        return Math.max(0, Math.min(1, (harmonic / total - chance) / (1 - chance)));
+    }
+
+    /*
+     * Pitch between the next notes from the ratio of their filters, the ratio grows with
+     * the pitch within the main lobes of both. Returns cents from the note.
+     */
+    private double cents(int note)
+    {
+        int low = note - 1;
+        int high = Math.min(note + 1, noteLength.length - 1);
+        double ratio = Math.log(magnitude[high] + TINY) - Math.log(magnitude[low] + TINY);
+
+        double from = -1;
+        double to = 1;
+        for (int i = 0; i < BISECTION; ++i) {
+            double cents = 50 * (from + to);
+            double f = noteFrequency(100 * (firstNote + note) + cents);
+            double r = Math.log(response(high, f) + TINY) - Math.log(response(low, f) + TINY);
+            if (r < ratio) {
+                from = cents / 100;
+            } else {
+                to = cents / 100;
+            }
+        }
+
+        return 50 * (from + to);
+    }
+
+    /*
+     * Normalized magnitude of the filter of the note for a tone of frequency f
+     */
+    private double response(int note, double f)
+    {
+        // the window of SpectrumEngine.hann() has a period of l - 1 samples
+        int span = sliding ? noteLength[note] - 1 : (window[note].length - 1) << level[note];
+        double bins = (f - noteFrequency(100 * (firstNote + note))) * span / sampleRate;
+        if (Math.abs(bins) >= 2) {
+            return 0;
+        }
+        if (Math.abs(bins) < 1e-9) {
+            return 1;
+        }
+        if (Math.abs(Math.abs(bins) - 1) < 1e-9) {
+            return 0.5;
+        }
+
+        double x = Math.PI * bins;
+        return Math.abs(Math.sin(x) / x / (1 - bins * bins));
+    }
+}
@@ -67,8 +67,8 @@ public class GripView extends View {
     private String noteNames[] = null;
     private int current_orientation = Orientation.UP;
     private boolean listening = false;
-    private int delta100 = 0;
-    private int signal_detected = 0;
+    private float cents = 0;
+    private boolean signal_detected = false;
 
     private Map<GripView.Buttons, Rect> buttonPositions = new HashMap<GripView.Buttons, Rect>() {{
         put(Buttons.SWITCH, new Rect(0, grip_height - 80, 70, grip_height - 10));
@@ -240,15 +240,15 @@ public class GripView extends View {
         }
 
         Rect pos = buttonPositions.get(Buttons.MEASURE);
-        // TODO use logarithmic scale here
-        int x = pos.centerX() + delta100 / 75;
+        // 40 points for half a semitone
+        int x = pos.centerX() + Math.round(cents * 4 / 5);
 
-        if (signal_detected > 0) {
+        if (signal_detected) {
             pointer = pointer_far;
-            if (delta100 < 1000 && delta100 > -1000) {
+            if (cents < 20 && cents > -20) {
                 pointer = pointer_near;
             }
-            if (delta100 < 500 && delta100 > -500) {
+            if (cents < 10 && cents > -10) {
                 pointer = pointer_ok;
             }
         } else {
@@ -310,21 +310,24 @@ public class GripView extends View {
         }
     }
 
-    public void onFrequency(boolean signal_detected, int freq100, int delta100)
+    /*
+     * cents is the deviation of the played tone from the shown note, the pitch stream
+     * is already smoothed (see PitchSmoother)
+     */
+    public void onFrequency(boolean signal_detected, float cents)
     {
-        if (signal_detected) {
-            this.signal_detected = 3;
-        }
+        this.signal_detected = signal_detected;
+        this.cents = signal_detected ? cents : 0;
+        invalidate();
+    }
 
-        if (signal_detected) {
-            this.delta100 = delta100;
-        } else {
-            if (this.signal_detected > 0) {
-                this.signal_detected--;
-            } else {
-                this.delta100 /= 2;
-            }
-        }
+    /*
+     * End of the signal, hide the tuning pointer at once
+     */
+    public void onSilence()
+    {
+        signal_detected = false;
+        cents = 0;
         invalidate();
     }
 
@@ -0,0 +1,152 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Pitch is the fundamental found by harmonic summation (see HarmonicSummation)
+ * in the spectrum of the frame, refined between the bins
+ *
+ * A held note moves little between overlapping frames, so after a confident frame only
+ * the bins a semitone around the previous pitch and around its octaves are searched. The
+ * whole range is scanned when the tracked peak loses its confidence (another note).
+ */
+
+public class HarmonicEstimator implements SpectrumEstimator {
+    // harmonics counted by the confidence
+    private static final int HARMONICS = 5;
+    // tracked peaks of lower confidence are searched again in the whole range
+    private static final double TRACK_CONFIDENCE = 0.6;
+    // searched bins around the tracked candidates, a semitone
+    private static final double SPAN = 0.0595;
+    private static final int MIN_SPAN = 2;
+
+    private int size;
+    private int sampleRate;
+    private HarmonicSummation harmonics;
+    private int lowBin;
+    private int highBin;
+    private double confidence = 0;
+    // pitch of the last confident frame, 0 for none
+    private double tracked = 0;
+
+    /*
+     * For spectra of FFT size at the sample rate
+     */
+    HarmonicEstimator(int size, int rate)
+    {
+        this.size = size;
+        sampleRate = rate;
+        harmonics = new HarmonicSummation(size / 2);
+        range(0, 0);
+    }
+
+    @Override
+    public void range(double lowest, double highest)
+    {
+        int bins = size / 2;
+
+        lowBin = 1;
+        highBin = bins - 1;
+        if (lowest > 0 && highest > lowest) {
+            lowBin = Math.max(lowBin, (int) Math.floor(lowest * size / sampleRate));
+            highBin = Math.min(highBin, (int) Math.ceil(highest * size / sampleRate));
+        }
+        tracked = 0;
+    }
+
+    @Override
+    public double estimate(SpectrumFrame frame)
+    {
+        double peak = 0;
+        if (tracked > 0) {
+            peak = trackedPeak(frame, tracked * size / sampleRate);
+            confidence = harmonicShare(frame, peak);
+        }
+
+        if (peak <= 0 || confidence < TRACK_CONFIDENCE) {
+            int bin = harmonics.bestBin(frame.power(), size / 2, lowBin, highBin);
+            peak = bin + frame.peakOffset(bin);
+            confidence = harmonicShare(frame, peak);
+        }
+
+        double pitch = (sampleRate * peak) / (double) size;
+        tracked = confidence >= TRACK_CONFIDENCE ? pitch : 0;
+        return pitch;
+    }
+
+    /*
+     * Best peak near the previous peak (bin) or its octaves, 0 when none is in the range
+     */
+    private double trackedPeak(SpectrumFrame frame, double previous)
+    {
+        int top = Math.min(highBin, (int) Math.ceil(2 * previous * (1 + SPAN)) + MIN_SPAN);
+        harmonics.load(frame.power(), size / 2, top);
+
+        double bestScore = -1;
+        int best = -1;
+        for (double center = previous / 2; center <= 2 * previous; center *= 2) {
+            int span = Math.max(MIN_SPAN, (int) Math.ceil(center * SPAN));
+            int from = Math.max(lowBin, (int) Math.round(center) - span);
+            int to = Math.min(highBin, (int) Math.round(center) + span);
+            if (from > to) {
+                continue;
+            }
+
+            int bin = harmonics.bestBin(from, to);
+            if (harmonics.score() > bestScore) {
+                bestScore = harmonics.score();
+                best = bin;
+            }
+        }
+
+        return best < 0 ? 0 : best + frame.peakOffset(best);
+    }
+
+    @Override
+    public double confidence()
+    {
+        return confidence;
+    }
+
+    /*
+     * Part of the power from lowBin up to the last counted harmonic which is in the main lobes
+     * of the harmonics of peak, close to 1 for a clean tone and low for noise
+     */
+    private double harmonicShare(SpectrumFrame frame, double peak)
+    {
+        if (peak <= 0) {
+            return 0;
+        }
+
+        double[] power = frame.power();
+        // half width of the main lobe of the Hann window of a zero padded frame
+        double lobe = 2.0 * size / frame.length();
+        int top = Math.min(size / 2, (int) Math.ceil((HARMONICS + 0.5) * peak));
+        double total = 0;
+        double harmonic = 0;
+        for (int b = lowBin; b <= top; ++b) {
+            total += power[b];
+            long h = Math.round(b / peak);
+            if (h >= 1 && h <= HARMONICS && Math.abs(b - h * peak) <= lobe) {
+                harmonic += power[b];
+            }
+        }
+
+        return total > 0 ? harmonic / total : 0;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Sub-harmonic summation over a power spectrum
+ *
+ * Every candidate bin is scored by the weighted sum of magnitudes at its harmonics, so a note
+ * whose fundamental is weaker than its second harmonic still wins over the octave above.
+ * Only candidates inside of the searched band are scored.
+ *
+ * D. J. Hermes: Measurement of pitch by subharmonic summation, JASA 83 (1988)
+ */
+
+public class HarmonicSummation {
+    private static final int HARMONICS = 5;
+    private static final double DECAY = 0.84;
+
+    private double[] magnitude;
+    private double[] weight = new double[HARMONICS];
+    // loaded magnitudes
+    private int count = 0;
+    private double bestScore = 0;
+
+    HarmonicSummation(int bins)
+    {
+        magnitude = new double[bins];
+        double w = 1.0;
+        for (int h = 0; h < HARMONICS; ++h) {
+            weight[h] = w;
+            w *= DECAY;
+        }
+    }
+
+    /*
+     * Returns the best fundamental bin from lo to hi (inclusive) of the first bins of power
+     */
+    int bestBin(double[] power, int bins, int lo, int hi)
+    {
+        load(power, bins, hi);
+        return bestBin(lo, hi);
+    }
+
+    /*
+     * Take the magnitudes of the first bins of power which are needed by the candidates
+     * up to hi, the following bestBin() calls search them
+     */
+    void load(double[] power, int bins, int hi)
+    {
+        count = Math.min(bins, HARMONICS * (hi + 1) + HARMONICS);
+        for (int j = 0; j < count; ++j) {
+            magnitude[j] = Math.sqrt(power[j]);
+        }
+        bestScore = 0;
+    }
+
+    /*
+     * Returns the best fundamental bin from lo to hi (inclusive) of the loaded magnitudes,
+     * its score is left in score()
+     */
+    int bestBin(int lo, int hi)
+    {
+        int bins = count;
+        bestScore = -1;
+        int best = lo;
+
+        for (int b = lo; b <= hi; ++b) {
+            double score = 0;
+            for (int h = 1; h <= HARMONICS; ++h) {
+                int center = h * b;
+                if (center >= bins) {
+                    break;
+                }
+
+                // harmonics of a bin fundamental spread over h bins
+                int from = Math.max(0, center - h / 2);
+                int to = Math.min(bins - 1, center + h / 2);
+                double m = 0;
+                for (int j = from; j <= to; ++j) {
+                    if (magnitude[j] > m) {
+                        m = magnitude[j];
+                    }
+                }
+                score += weight[h - 1] * m;
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                best = b;
+            }
+        }
+
+        // the neighbour of the true bin collects the same harmonics, take the real maximum
+        if (best > lo && magnitude[best - 1] > magnitude[best]) {
+            --best;
+        } else if (best < hi && best + 1 < bins && magnitude[best + 1] > magnitude[best]) {
+            ++best;
+        }
+
+        return best;
+    }
+
+    /*
+     * Score of the bin returned by the last bestBin()
+     */
+    double score()
+    {
+        return bestScore;
+    }
+}
@@ -27,17 +27,21 @@ import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.PointF;
+import android.media.AudioManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.LinearLayout;
+import android.widget.Toast;
 
 import static android.content.res.Configuration.ORIENTATION_PORTRAIT;
 
@@ -46,7 +50,10 @@ public class MainActivity extends AppCompatActivity {
     ScoreView score = null;
     GripView grip = null;
     Thread frequencyAnalyzer = null;
+    Frequency frequency = null;
     boolean keepScreenOn = false;
+    int detector = Frequency.DETECTOR_SPECTRUM;
+    int precision = Frequency.PRECISION_DOUBLE;
     PointF lastTouch = new PointF();
 
     View.OnTouchListener scoreOnTouchListener = new View.OnTouchListener() {
@@ -94,14 +101,30 @@ public class MainActivity extends AppCompatActivity {
     Handler freqHandler = new Handler(Looper.getMainLooper()) {
         @Override
         public void handleMessage(Message inputMessage) {
-            if (inputMessage.what == Frequency.MSG_FREQUENCY) {
-                int freq100 = inputMessage.arg1;
-                Log.d("FREQUENCY", "Frequency update: " + freq100);
-                onFrequency(freq100);
+            if (inputMessage.what == Frequency.MSG_NOTE) {
+                app.noteEvent((NoteEvent) inputMessage.obj);
+            } else if (inputMessage.what == Frequency.MSG_NOISE) {
+                Toast.makeText(MainActivity.this, R.string.noise_learned, Toast.LENGTH_SHORT).show();
             }
         }
     };
 
+    // reads the latest frequency once per display frame while listening
+    Choreographer.FrameCallback frequencyCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (frequency == null) {
+                return;
+            }
+
+            PitchMailbox mailbox = frequency.mailbox();
+            if (mailbox.changed()) {
+                onPitch(mailbox.take());
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -127,6 +150,9 @@ public class MainActivity extends AppCompatActivity {
         item = menu.findItem(R.id.actionListen);
         item.setChecked(frequencyAnalyzer != null);
 
+        item = menu.findItem(R.id.actionLearnNoise);
+        item.setVisible(frequencyAnalyzer != null);
+
         item = menu.findItem(R.id.actionKeepScreenOn);
         item.setChecked(keepScreenOn);
 
@@ -150,6 +176,15 @@ public class MainActivity extends AppCompatActivity {
                 item.setChecked(!item.isChecked());
                 onListen(item.isChecked());
                 return true;
+            case R.id.actionDetection:
+                onDetection();
+                return true;
+            case R.id.actionPrecision:
+                onPrecisionDialog();
+                return true;
+            case R.id.actionLearnNoise:
+                onLearnNoise();
+                return true;
             case R.id.actionKeepScreenOn:
                 item.setChecked(!item.isChecked());
                 onKeepScreenOn(item.isChecked());
@@ -173,6 +208,9 @@ public class MainActivity extends AppCompatActivity {
         if (frequencyAnalyzer != null) {
             frequencyAnalyzer.interrupt();
             frequencyAnalyzer = null;
+            frequency = null;
+            Choreographer.getInstance().removeFrameCallback(frequencyCallback);
+            grip.onSilence();
             grip.listen(false);
         }
         saveState();
@@ -211,6 +249,8 @@ public class MainActivity extends AppCompatActivity {
         editor.putBoolean("note-trill", app.noteTrill());
         editor.putInt("grip-orientation", grip.orientation());
         editor.putBoolean("keep-screen-on", keepScreenOn);
+        editor.putInt("detector", detector);
+        editor.putInt("precision", precision);
         editor.apply();
     }
 
@@ -229,6 +269,8 @@ public class MainActivity extends AppCompatActivity {
         );
         grip.orientation(sharedPref.getInt("grip-orientation", Orientation.UP));
         onKeepScreenOn(sharedPref.getBoolean("keep-screen-on", false));
+        onDetector(sharedPref.getInt("detector", Frequency.DETECTOR_SPECTRUM));
+        onPrecision(sharedPref.getInt("precision", Frequency.PRECISION_DOUBLE));
         app.checkLimits();
     }
 
@@ -375,6 +417,9 @@ public class MainActivity extends AppCompatActivity {
                         break;
                 }
                 app.checkLimits();
+                if (frequency != null) {
+                    frequency.configure(analysisConfig());
+                }
                 grip.invalidate();
                 score.invalidate();
                 invalidateOptionsMenu();
@@ -426,6 +471,9 @@ public class MainActivity extends AppCompatActivity {
             if (frequencyAnalyzer != null) {
                 frequencyAnalyzer.interrupt();
                 frequencyAnalyzer = null;
+                frequency = null;
+                Choreographer.getInstance().removeFrameCallback(frequencyCallback);
+                grip.onSilence();
             }
             grip.listen(false);
             invalidateOptionsMenu();
@@ -435,35 +483,147 @@ public class MainActivity extends AppCompatActivity {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
             ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.RECORD_AUDIO}, 42);
         } else {
-            frequencyAnalyzer = new Thread(new Frequency(freqHandler));
+            frequency = new Frequency(freqHandler, analysisConfig(), precision);
+            frequency.detector(detector);
+            frequencyAnalyzer = new Thread(frequency);
             frequencyAnalyzer.start();
+            Choreographer.getInstance().postFrameCallback(frequencyCallback);
             grip.listen(true);
             invalidateOptionsMenu();
         }
     }
 
-    public void onFrequency(int freq100)
+    private AnalysisConfig analysisConfig()
     {
-        if (freq100 < 2000) {
+        return new AnalysisConfig(app.realLowestFrequency100() / 100.0, app.realHighestFrequency100() / 100.0, nativeSampleRate());
+    }
+
+    /*
+     * Native sample rate of the device, recording at this rate avoids resampling in the
+     * audio framework
+     */
+    private int nativeSampleRate()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            AudioManager audio = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+            String rate = audio == null ? null : audio.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+            if (rate != null) {
+                try {
+                    return Integer.parseInt(rate);
+                } catch (NumberFormatException e) {
+                    Log.w("FREQUENCY", "Unknown native sample rate " + rate);
+                }
+            }
+        }
+        return AnalysisConfig.CAPTURE_RATE;
+    }
+
+    public void onPitch(PitchFrame pitch)
+    {
+        if (pitch.clipped()) {
+            Log.d("FREQUENCY", "input clipped, too loud");
+        }
+
+        if (pitch.frequency() == 0) {
+            Log.d("FREQUENCY", "no signal");
+            grip.onSilence();
+            return;
+        }
+
+        if (pitch.frequency() < 20) {
             Log.d("FREQUENCY", "too deep frequency");
-            grip.onFrequency(false, 0, 0);
+            grip.onFrequency(false, 0);
             return;
         }
 
-        Note n = app.scale.frequencyNearestNote(freq100);
+        if (pitch.confidence() < PitchSmoother.MIN_CONFIDENCE) {
+            Log.d("FREQUENCY", "noise, confidence " + pitch.confidence());
+            grip.onFrequency(false, 0);
+            return;
+        }
+
+        // the note of the smoother keeps out of tune tones on one note
+        Note n = app.scale.frequencyNearestNote((int) Math.round(pitch.noteFrequency() * 100));
         if (! app.canPlay(n)) {
             Log.d("FREQUENCY", "this sound can't be played on the instrument");
-            grip.onFrequency(false, 0, 0);
+            grip.onFrequency(false, 0);
             return;
         }
 
         app.realNote(n);
         Log.d("FREQUENCY", "Note: " + n.value() + " " + n.accidentals());
-        grip.onFrequency(true, freq100, freq100 - app.scale.noteToFrequency(n));
-        grip.invalidate();
+        grip.onFrequency(true, pitch.cents());
         score.invalidate();
     }
 
+    private void onDetection()
+    {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.detection_title);
+        // the items are ordered as the Frequency.DETECTOR_* constants
+        builder.setSingleChoiceItems(R.array.detection_items, detector, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                onDetector(which);
+                dialog.dismiss();
+            }
+        });
+        builder.show();
+    }
+
+    private void onPrecisionDialog()
+    {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.precision_title);
+        // the items are ordered as the Frequency.PRECISION_* constants
+        builder.setSingleChoiceItems(R.array.precision_items, precision, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                onPrecision(which);
+                dialog.dismiss();
+            }
+        });
+        builder.show();
+    }
+
+    private void onLearnNoise()
+    {
+        if (frequency != null) {
+            frequency.learnNoise();
+            Toast.makeText(this, R.string.noise_learning, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    private void onDetector(int type)
+    {
+        detector = type;
+        if (frequency != null) {
+            frequency.detector(type);
+        }
+    }
+
+    /*
+     * The precision is fixed for the life of the analysis, a running one is restarted
+     */
+    private void onPrecision(int p)
+    {
+        if (p < Frequency.PRECISION_DOUBLE || p > Frequency.PRECISION_FIXED || p == precision) {
+            return;
+        }
+
+        precision = p;
+        Thread analyzer = frequencyAnalyzer;
+        if (analyzer != null) {
+            onListen(false);
+            // the microphone is released when the old analysis ends
+            try {
+                analyzer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            onListen(true);
+        }
+    }
+
     private void onKeepScreenOn(boolean keep)
     {
         keepScreenOn = keep;
@@ -0,0 +1,301 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Time domain pitch detection using the normalized square difference function (NSDF)
+ *
+ * Philip McLeod, Geoff Wyvill: A smarter way to find pitch
+ * http://www.cs.otago.ac.nz/tartini/papers/A_Smarter_Way_to_Find_Pitch.pdf
+ *
+ * The autocorrelation is computed by FFT: the power spectrum of the zero padded frame is real
+ * and symmetric, so its forward transformation equals the inverse one and the same real FFT
+ * can be used twice. A frame of a few tens of milliseconds is enough for a stable pitch.
+ *
+ * High notes have only a few samples per period at the analysis rate and a parabola through
+ * three lags misses the true maxima of the NSDF by far, the octave below then wins. The key
+ * maxima are therefore refined on the band limited autocorrelation, evaluated at any lag
+ * from the power spectrum, before CUTOFF is applied to their heights.
+ */
+
+public class McLeodPitchDetector implements PitchDetector {
+    // a key maximum must reach this fraction of the highest one to be taken as the pitch
+    private static final double CUTOFF = 0.9;
+    // frames with weaker periodicity are reported as no pitch
+    private static final double CLARITY = 0.5;
+    // Newton steps refining a key maximum
+    private static final int REFINE = 2;
+
+    private int sampleRate;
+    private double confidence = 0;
+    // results of autocorrelation()
+    private double correlation;
+    private double correlation1;
+    private double correlation2;
+    private int length;
+    private int maxLag;
+    private int lowLag;
+    private int highLag;
+    private FFT fft;
+    private double[] signal;
+    private double[] frame;
+    private double[] spectrum_real;
+    private double[] spectrum_img;
+    private double[] nsdf;
+    // power spectrum of the zero padded frame
+    private double[] power;
+    // the normalisation m of the NSDF at the lags
+    private double[] norm;
+    private int[] keyMaxima;
+    // interpolated maxima, offsets from the lags in keyMaxima and their heights
+    private double[] keyOffsets;
+    private double[] keyHeights;
+
+    McLeodPitchDetector(int rate, int frameExp)
+    {
+        sampleRate = rate;
+        length = 1 << frameExp;
+        maxLag = length / 2;
+        // zero padding to twice of the frame turns the circular correlation into a linear one
+        fft = new FFT(frameExp + 1);
+        signal = new double[length];
+        frame = new double[fft.size()];
+        spectrum_real = new double[fft.size() / 2 + 1];
+        spectrum_img = new double[fft.size() / 2 + 1];
+        nsdf = new double[maxLag + 1];
+        power = new double[fft.size() / 2 + 1];
+        norm = new double[maxLag + 1];
+        keyMaxima = new int[maxLag + 1];
+        keyOffsets = new double[maxLag + 1];
+        keyHeights = new double[maxLag + 1];
+        range(0, 0);
+    }
+
+    @Override
+    public int frameLength()
+    {
+        return length;
+    }
+
+    @Override
+    public void range(double lowest, double highest)
+    {
+        lowLag = 1;
+        highLag = maxLag;
+        if (lowest > 0 && highest > lowest) {
+            lowLag = Math.max(lowLag, (int) Math.floor(sampleRate / highest));
+            highLag = Math.min(highLag, (int) Math.ceil(sampleRate / lowest));
+        }
+    }
+
+    @Override
+    public double detect(SampleRing ring, long start)
+    {
+        short[] samples = ring.data();
+        int mask = ring.mask();
+        int offset = (int) start;
+        int size = fft.size();
+        double mean = 0;
+
+        for (int i = 0; i < length; ++i) {
+            double x = samples[(offset + i) & mask];
+            signal[i] = x;
+            mean += x;
+        }
+        mean /= length;
+
+        for (int i = 0; i < length; ++i) {
+            signal[i] -= mean;
+            frame[i] = signal[i];
+        }
+        for (int i = length; i < size; ++i) {
+            frame[i] = 0.0;
+        }
+
+        normalizedSquareDifference();
+        return pitch();
+    }
+
+    /*
+     * Normalized square difference at the period, the clarity of the tone
+     */
+    @Override
+    public double confidence()
+    {
+        return confidence;
+    }
+
+    private void normalizedSquareDifference()
+    {
+        int size = fft.size();
+        int half = size / 2;
+
+        fft.realForward(frame, spectrum_real, spectrum_img);
+
+        // power spectrum extended to the whole (symmetric) period
+        for (int k = 0; k <= half; ++k) {
+            frame[k] = spectrum_real[k] * spectrum_real[k] + spectrum_img[k] * spectrum_img[k];
+            power[k] = frame[k];
+        }
+        for (int k = half + 1; k < size; ++k) {
+            frame[k] = frame[size - k];
+        }
+
+        fft.realForward(frame, spectrum_real, spectrum_img);
+
+        // spectrum_real[lag] is now size * autocorrelation(lag)
+        double m = 0;
+        for (int i = 0; i < length; ++i) {
+            double x = signal[i];
+            m += x * x;
+        }
+        m *= 2;
+
+        for (int lag = 0; lag <= maxLag; ++lag) {
+            if (lag > 0) {
+                double a = signal[lag - 1];
+                double b = signal[length - lag];
+                m -= a * a + b * b;
+            }
+            norm[lag] = m;
+            nsdf[lag] = m > 0 ? 2 * spectrum_real[lag] / size / m : 0.0;
+        }
+    }
+
+    private double pitch()
+    {
+        confidence = 0;
+        int count = 0;
+        int lag = 1;
+
+        // skip the lobe around zero lag
+        while (lag < maxLag && nsdf[lag] > 0) {
+            ++lag;
+        }
+
+        while (lag < maxLag) {
+            while (lag < maxLag && nsdf[lag] <= 0) {
+                ++lag;
+            }
+
+            int best = -1;
+            while (lag < maxLag && nsdf[lag] > 0) {
+                if (best < 0 || nsdf[lag] > nsdf[best]) {
+                    best = lag;
+                }
+                ++lag;
+            }
+
+            if (best >= lowLag && best <= highLag) {
+                keyMaxima[count++] = best;
+            }
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        // the maxima at integer lags are lower than the true ones, much lower with few
+        // samples per period, so the heights of the refined maxima are compared
+        double highest = 0;
+        for (int i = 0; i < count; ++i) {
+            refine(i);
+            highest = Math.max(highest, keyHeights[i]);
+        }
+
+        if (highest < CLARITY) {
+            return 0;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            if (keyHeights[i] >= CUTOFF * highest) {
+                confidence = Math.min(1, keyHeights[i]);
+                return sampleRate / (keyMaxima[i] + keyOffsets[i]);
+            }
+        }
+
+        return 0;
+    }
+
+    /*
+     * Maximum of the NSDF near the key maximum i: a parabola through the three lags around
+     * it, then Newton steps on the autocorrelation with the normalisation taken as linear
+     */
+    private void refine(int i)
+    {
+        int k = keyMaxima[i];
+        double a = nsdf[k - 1];
+        double b = nsdf[k];
+        double c = nsdf[k + 1];
+        double d = a - 2 * b + c;
+        double lag = k + (d < 0 ? Math.max(-0.5, Math.min(0.5, 0.5 * (a - c) / d)) : 0);
+
+        double slope = (norm[k + 1] - norm[k - 1]) / 2;
+        double r = 0;
+        for (int step = 0; step < REFINE; ++step) {
+            autocorrelation(lag);
+            double m = norm[k] + slope * (lag - k);
+            r = correlation;
+            if (correlation2 >= 0 || m <= 0) {
+                break;
+            }
+            double delta = -(correlation1 * m - correlation * slope) / (correlation2 * m);
+            delta = Math.max(k - 1 - lag, Math.min(k + 1 - lag, delta));
+            // the autocorrelation at the new lag from its Taylor series
+            r = correlation + delta * (correlation1 + 0.5 * delta * correlation2);
+            lag += delta;
+        }
+
+        double m = norm[k] + slope * (lag - k);
+        keyOffsets[i] = lag - k;
+        keyHeights[i] = m > 0 ? Math.min(1, 2 * r / fft.size() / m) : 0;
+    }
+
+    /*
+     * size times the autocorrelation at a fractional lag and its first two derivatives,
+     * the cosine series of the power spectrum, its terms are rotated instead of computed
+     */
+    private void autocorrelation(double lag)
+    {
+        int size = fft.size();
+        int half = size / 2;
+        double omega = 2 * Math.PI / size;
+        double rotationCos = Math.cos(omega * lag);
+        double rotationSin = Math.sin(omega * lag);
+        double cos = 1;
+        double sin = 0;
+
+        double r = power[0];
+        double r1 = 0;
+        double r2 = 0;
+        for (int k = 1; k <= half; ++k) {
+            double t = cos * rotationCos - sin * rotationSin;
+            sin = sin * rotationCos + cos * rotationSin;
+            cos = t;
+            // the bins but the first and the last one stand for two symmetric bins
+            double p = k < half ? 2 * power[k] : power[k];
+            double w = omega * k;
+            r += p * cos;
+            r1 -= p * w * sin;
+            r2 -= p * w * w * cos;
+        }
+
+        correlation = r;
+        correlation1 = r1;
+        correlation2 = r2;
+    }
+}
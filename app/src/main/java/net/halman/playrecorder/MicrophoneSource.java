@@ -0,0 +1,85 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+/*
+ * The microphone of the device
+ */
+
+public class MicrophoneSource implements AudioSource {
+    private AudioRecord input;
+    private int sampleRate;
+    private int bufferSamples;
+
+    /*
+     * The AudioRecord buffer holds at least minBufferSamples
+     */
+    MicrophoneSource(int rate, int minBufferSamples)
+    {
+        sampleRate = rate;
+        int size = Math.max(2 * AudioRecord.getMinBufferSize(rate, AudioFormat.CHANNEL_IN_MONO,  AudioFormat.ENCODING_PCM_16BIT), 2 * minBufferSamples);
+        input = new AudioRecord(MediaRecorder.AudioSource.MIC, rate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, size);
+        bufferSamples = size / 2;
+    }
+
+    @Override
+    public int sampleRate()
+    {
+        return sampleRate;
+    }
+
+    @Override
+    public boolean live()
+    {
+        return true;
+    }
+
+    @Override
+    public int bufferSamples()
+    {
+        return bufferSamples;
+    }
+
+    @Override
+    public void start()
+    {
+        input.startRecording();
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length)
+    {
+        return input.read(buffer, offset, length);
+    }
+
+    @Override
+    public void stop()
+    {
+        input.stop();
+    }
+
+    @Override
+    public void release()
+    {
+        input.release();
+    }
+}
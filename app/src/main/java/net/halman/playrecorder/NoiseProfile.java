@@ -0,0 +1,102 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Spectrum of the background noise of the room
+ *
+ * Learned from a few seconds of room tone (nobody plays): the power spectra of the frames
+ * are averaged and divided by the energy of their window, so the profile is the noise power
+ * per sample and per bin, independent of the window and FFT size of the detector (and of
+ * the gain of the samples). The spectrum frames subtract it from the power of every bin
+ * before the estimators search them (see SpectrumFrame).
+ */
+
+public class NoiseProfile {
+    private int sampleRate;
+    private int length;
+    private SpectrumEngine spectrum;
+    private double[] power;
+    private double[] sum;
+    private double windowEnergy = 0;
+    private int frames = 0;
+
+    /*
+     * Frames of length samples are analysed by FFT of 2^fftExp
+     */
+    NoiseProfile(int rate, int fftExp, int length)
+    {
+        sampleRate = rate;
+        spectrum = SpectrumEngine.create(Frequency.PRECISION_DOUBLE, fftExp);
+        this.length = Math.min(length, spectrum.size());
+        power = new double[spectrum.size() / 2 + 1];
+        sum = new double[spectrum.size() / 2 + 1];
+        for (int i = 0; i < this.length; ++i) {
+            double w = SpectrumEngine.hann(i, this.length);
+            windowEnergy += w * w;
+        }
+    }
+
+    int sampleRate()
+    {
+        return sampleRate;
+    }
+
+    /*
+     * Number of analysed frames
+     */
+    int frames()
+    {
+        return frames;
+    }
+
+    /*
+     * Add the frame ending at end, amplified by gain (see GainControl), the profile is
+     * the noise before the amplification
+     */
+    void add(SampleRing ring, long end, double gain)
+    {
+        spectrum.load(ring, end - length, length);
+        spectrum.transform();
+        spectrum.power(power);
+        double scale = 1 / (gain * gain);
+        for (int b = 0; b < power.length; ++b) {
+            sum[b] += power[b] * scale;
+        }
+        ++frames;
+    }
+
+    /*
+     * Noise power at frequency (Hz) of a frame with the window energy of one
+     */
+    double density(double frequency)
+    {
+        if (frames == 0) {
+            return 0;
+        }
+
+        double bin = Math.max(0, frequency * spectrum.size() / sampleRate);
+        int b = (int) bin;
+        if (b >= sum.length - 1) {
+            return sum[sum.length - 1] / (frames * windowEnergy);
+        }
+
+        double d = bin - b;
+        return ((1 - d) * sum[b] + d * sum[b + 1]) / (frames * windowEnergy);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * A played note found by NoteSegmenter, times are in seconds since the start of listening
+ */
+
+public class NoteEvent {
+    private double start;
+    private double duration;
+    private double frequency;
+    private Note note = null;
+
+    NoteEvent(double start, double duration, double frequency)
+    {
+        this.start = start;
+        this.duration = duration;
+        this.frequency = frequency;
+    }
+
+    double start()
+    {
+        return start;
+    }
+
+    double duration()
+    {
+        return duration;
+    }
+
+    /*
+     * Median pitch of the note (Hz)
+     */
+    double frequency()
+    {
+        return frequency;
+    }
+
+    /*
+     * The nearest note of the scale, null until assigned by RecorderApp
+     */
+    Note note()
+    {
+        return note;
+    }
+
+    void note(Note n)
+    {
+        note = n;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+import java.util.Arrays;
+
+/*
+ * Splits the stream of analysed frames into notes
+ *
+ * A note starts when the signal appears, on an onset inside of the signal and when the pitch
+ * moves to another note for PITCH_FRAMES frames (legato). An onset is a peak of the spectral
+ * flux (sum of the rising log magnitudes of a short spectrum over the instrument band) above
+ * the recent average, or a jump of the RMS level. A note ends at the next note, at the end
+ * of the signal or when the level falls RELEASE under the peak of the note.
+ *
+ * Every frame gets the time of its end, the onset is placed to the start of the hop
+ * in which it was detected.
+ */
+
+public class NoteSegmenter {
+    private static final double TINY = 1e-12;
+    // length of the flux spectrum in seconds
+    private static final double FLUX_LENGTH = 0.04;
+    // frames of the average flux
+    private static final int FLUX_HISTORY = 16;
+    private static final double FLUX_RATIO = 2.0;
+    private static final double FLUX_DELTA = 0.1;
+    // RMS ratio of two frames, 6 dB
+    private static final double ENERGY_JUMP = 2.0;
+    // RMS ratio to the peak of the note, -20 dB
+    private static final double RELEASE = 0.1;
+    // cents from the note to another note
+    private static final double PITCH_CHANGE = 60;
+    private static final int PITCH_FRAMES = 2;
+    // pitches kept for the median
+    private static final int MAX_FRAMES = 256;
+    // shorter notes are noise
+    private static final double MIN_DURATION = 0.04;
+    // the attack of a note is not an onset
+    private static final double ATTACK = 0.08;
+
+    private FFT fft;
+    private double[] window;
+    private double[] frame;
+    private double[] real;
+    private double[] img;
+    private double[] lastMagnitude;
+    private boolean lastValid = false;
+    private int lowBin;
+    private int highBin;
+    private double[] fluxHistory = new double[FLUX_HISTORY];
+    private int fluxCount = 0;
+
+    private boolean inNote = false;
+    // after the release of a note only an onset starts the next one
+    private boolean released = false;
+    private double noteStart = 0;
+    private double notePeak = 0;
+    private double lastTime = 0;
+    private double lastRms = 0;
+    private double[] pitches = new double[MAX_FRAMES];
+    private int pitchCount = 0;
+    private double logSum = 0;
+    // frames of another pitch and when they started
+    private double[] changed = new double[PITCH_FRAMES];
+    private int changedCount = 0;
+    private double changeTime = 0;
+
+    /*
+     * lowest and highest limit the band of the spectral flux (Hz)
+     */
+    NoteSegmenter(int sampleRate, double lowest, double highest)
+    {
+        int exp = 6;
+        while ((1 << exp) < FLUX_LENGTH * sampleRate) {
+            ++exp;
+        }
+        fft = new FFT(exp);
+        int size = fft.size();
+        window = new double[size];
+        for (int i = 0; i < size; ++i) {
+            window[i] = SpectrumEngine.hann(i, size);
+        }
+        frame = new double[size];
+        real = new double[size / 2 + 1];
+        img = new double[size / 2 + 1];
+        lastMagnitude = new double[size / 2 + 1];
+
+        // fundamentals and the strong harmonics
+        lowBin = Math.max(1, (int) Math.floor(lowest * size / sampleRate));
+        highBin = Math.min(size / 2, (int) Math.ceil(4 * highest * size / sampleRate));
+    }
+
+    /*
+     * Number of samples used from the ring
+     */
+    int frameLength()
+    {
+        return fft.size();
+    }
+
+    /*
+     * Process a frame ending at time (seconds) with its pitch (0 for none), signal is false
+     * for silence and rms is the level of the frame. Returns the note which ended in this
+     * frame or null.
+     */
+    NoteEvent frame(SampleRing ring, double time, double pitch, boolean signal, double rms)
+    {
+        NoteEvent event = null;
+
+        if (!signal) {
+            if (inNote) {
+                event = finish(lastTime);
+            }
+            inNote = false;
+            released = false;
+            lastValid = false;
+            fluxCount = 0;
+            lastRms = 0;
+            lastTime = time;
+            return event;
+        }
+
+        double flux = flux(ring);
+        boolean onset = lastRms > 0 && (rms > ENERGY_JUMP * lastRms || flux > fluxThreshold());
+        addFlux(flux);
+        lastRms = rms;
+
+        if (inNote) {
+            if (onset && time - noteStart > ATTACK) {
+                event = finish(lastTime);
+                start(lastTime);
+            } else if (rms < RELEASE * notePeak) {
+                event = finish(time);
+                inNote = false;
+                released = true;
+            } else if (pitchChanged(pitch, time)) {
+                event = finish(changeTime);
+                start(changeTime);
+                for (int i = 0; i < changedCount; ++i) {
+                    addPitch(changed[i]);
+                }
+                changedCount = 0;
+            }
+        } else if (!released || onset) {
+            start(lastTime);
+        }
+
+        if (inNote) {
+            notePeak = Math.max(notePeak, rms);
+            if (pitch > 0 && changedCount == 0) {
+                addPitch(pitch);
+            }
+        }
+
+        lastTime = time;
+        return event;
+    }
+
+    private void start(double time)
+    {
+        inNote = true;
+        released = false;
+        noteStart = time;
+        notePeak = 0;
+        pitchCount = 0;
+        logSum = 0;
+        changedCount = 0;
+    }
+
+    private void addPitch(double pitch)
+    {
+        if (pitchCount < MAX_FRAMES) {
+            pitches[pitchCount++] = pitch;
+            logSum += Math.log(pitch);
+        }
+    }
+
+    /*
+     * True when the pitch left the note for PITCH_FRAMES frames, the frames are kept
+     * in changed
+     */
+    private boolean pitchChanged(double pitch, double time)
+    {
+        if (pitch <= 0 || pitchCount == 0) {
+            return false;
+        }
+
+        double cents = 1200 * (Math.log(pitch) - logSum / pitchCount) / Math.log(2);
+        if (Math.abs(cents) < PITCH_CHANGE) {
+            changedCount = 0;
+            return false;
+        }
+
+        if (changedCount == 0) {
+            changeTime = lastTime;
+        }
+        changed[changedCount++] = pitch;
+        return changedCount == PITCH_FRAMES;
+    }
+
+    private NoteEvent finish(double end)
+    {
+        double duration = end - noteStart;
+        if (pitchCount == 0 || duration < MIN_DURATION) {
+            return null;
+        }
+
+        // note events are rare, sorting a copy is cheap
+        double[] sorted = Arrays.copyOf(pitches, pitchCount);
+        Arrays.sort(sorted);
+        return new NoteEvent(noteStart, duration, sorted[pitchCount / 2]);
+    }
+
+    private double fluxThreshold()
+    {
+        if (fluxCount < FLUX_HISTORY / 4) {
+            return Double.MAX_VALUE;
+        }
+
+        double sum = 0;
+        int n = Math.min(fluxCount, FLUX_HISTORY);
+        for (int i = 0; i < n; ++i) {
+            sum += fluxHistory[i];
+        }
+        return FLUX_RATIO * sum / n + FLUX_DELTA;
+    }
+
+    private void addFlux(double flux)
+    {
+        fluxHistory[fluxCount % FLUX_HISTORY] = flux;
+        ++fluxCount;
+    }
+
+    /*
+     * Average rise of the log magnitudes since the last frame
+     */
+    private double flux(SampleRing ring)
+    {
+        short[] data = ring.data();
+        int mask = ring.mask();
+        int size = fft.size();
+        long from = ring.position() - size;
+        for (int i = 0; i < size; ++i) {
+            frame[i] = data[(int) (from + i) & mask] * window[i];
+        }
+        fft.realForward(frame, real, img);
+
+        double sum = 0;
+        for (int b = lowBin; b <= highBin; ++b) {
+            double m = 0.5 * Math.log(real[b] * real[b] + img[b] * img[b] + TINY);
+            double d = m - lastMagnitude[b];
+            if (d > 0) {
+                sum += d;
+            }
+            lastMagnitude[b] = m;
+        }
+
+        boolean valid = lastValid;
+        lastValid = true;
+        return valid ? sum / (highBin - lowBin + 1) : 0;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Pitch is the strongest bin of the spectrum, refined between the bins
+ *
+ * The cheapest estimator, right for clean tones with a strong fundamental (a recorder in
+ * the upper octave), it takes the second harmonic of a soft fundamental as the pitch.
+ * The confidence is the part of the power in the main lobe of the peak.
+ */
+
+public class PeakEstimator implements SpectrumEstimator {
+    private int size;
+    private int sampleRate;
+    private int lowBin;
+    private int highBin;
+    private double confidence = 0;
+
+    /*
+     * For spectra of FFT size at the sample rate
+     */
+    PeakEstimator(int size, int rate)
+    {
+        this.size = size;
+        sampleRate = rate;
+        range(0, 0);
+    }
+
+    @Override
+    public void range(double lowest, double highest)
+    {
+        lowBin = 1;
+        highBin = size / 2 - 1;
+        if (lowest > 0 && highest > lowest) {
+            lowBin = Math.max(lowBin, (int) Math.floor(lowest * size / sampleRate));
+            highBin = Math.min(highBin, (int) Math.ceil(highest * size / sampleRate));
+        }
+    }
+
+    @Override
+    public double estimate(SpectrumFrame frame)
+    {
+        double[] power = frame.power();
+        int best = lowBin;
+        double total = 0;
+        for (int b = lowBin; b <= highBin; ++b) {
+            total += power[b];
+            if (power[b] > power[best]) {
+                best = b;
+            }
+        }
+
+        // half width of the main lobe of the Hann window of a zero padded frame
+        int lobe = (int) Math.ceil(2.0 * size / frame.length());
+        double peak = 0;
+        for (int b = Math.max(lowBin, best - lobe); b <= Math.min(highBin, best + lobe); ++b) {
+            peak += power[b];
+        }
+
+        confidence = total > 0 ? peak / total : 0;
+        return sampleRate * (best + frame.peakOffset(best)) / (double) size;
+    }
+
+    @Override
+    public double confidence()
+    {
+        return confidence;
+    }
+}
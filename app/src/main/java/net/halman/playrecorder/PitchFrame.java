@@ -0,0 +1,134 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * One pitch estimate of Frequency
+ *
+ * Frames are preallocated by PitchMailbox and reused, set() does not allocate.
+ */
+
+public class PitchFrame {
+    private float frequency = 0;
+    private float cents = 0;
+    private int note = 0;
+    private float confidence = 0;
+    private long timestamp = 0;
+    private int sampleRate = 1;
+    private boolean clipped = false;
+
+    /*
+     * Pitch hz related to the nearest note
+     */
+    void set(double hz, double confidence, long timestamp, int sampleRate)
+    {
+        int nearest = 0;
+        if (hz > 0) {
+            nearest = (int) Math.round(12 * Math.log(hz / 440) / Math.log(2));
+        }
+        set(hz, nearest, confidence, timestamp, sampleRate);
+    }
+
+    /*
+     * Pitch hz related to the given note (semitones from a4)
+     */
+    void set(double hz, int note, double confidence, long timestamp, int sampleRate)
+    {
+        frequency = (float) hz;
+        this.note = note;
+        this.confidence = (float) confidence;
+        this.timestamp = timestamp;
+        this.sampleRate = sampleRate;
+
+        // equal tempered, a4 = 440 Hz as in Scale
+        if (hz > 0) {
+            cents = (float) (1200 * Math.log(hz / 440) / Math.log(2) - 100 * note);
+        } else {
+            cents = 0;
+        }
+    }
+
+    /*
+     * Frequency in Hz, 0 for no signal
+     */
+    float frequency()
+    {
+        return frequency;
+    }
+
+    /*
+     * Deviation from note() in cents
+     */
+    float cents()
+    {
+        return cents;
+    }
+
+    /*
+     * The played note, semitones from a4 (usually the nearest one)
+     */
+    int note()
+    {
+        return note;
+    }
+
+    /*
+     * Frequency of note() in Hz
+     */
+    double noteFrequency()
+    {
+        return 440 * Math.pow(2, note / 12.0);
+    }
+
+    /*
+     * Confidence of the detector, 0 (noise) .. 1 (clean tone)
+     */
+    float confidence()
+    {
+        return confidence;
+    }
+
+    /*
+     * The input was clipped (too loud) since the previous frame
+     */
+    boolean clipped()
+    {
+        return clipped;
+    }
+
+    void clipped(boolean c)
+    {
+        clipped = c;
+    }
+
+    /*
+     * Capture sample clock at the end of the analysed frame
+     */
+    long timestamp()
+    {
+        return timestamp;
+    }
+
+    /*
+     * Seconds since the start of the capture at the end of the analysed frame
+     */
+    double time()
+    {
+        return timestamp / (double) sampleRate;
+    }
+}
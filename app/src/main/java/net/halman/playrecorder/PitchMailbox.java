@@ -0,0 +1,74 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The latest pitch frame, written by the analysis thread and read by the UI
+ *
+ * Triple buffer of preallocated frames: the writer fills its back frame and swaps it with
+ * the middle one, the reader swaps its front frame with the middle one when a new frame was
+ * published. Only the index of the middle frame (with a flag of a new frame) is shared, a
+ * new frame overwrites an unread one, so the UI work does not depend on the analysis rate.
+ * Nothing is allocated after the construction.
+ */
+
+public class PitchMailbox {
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private PitchFrame[] frames = {new PitchFrame(), new PitchFrame(), new PitchFrame()};
+    private AtomicInteger middle = new AtomicInteger(1);
+    // used by the writer only
+    private int back = 0;
+    // used by the reader only
+    private int front = 2;
+
+    /*
+     * Frame to be filled by the writer and published
+     */
+    PitchFrame claim()
+    {
+        return frames[back];
+    }
+
+    void publish()
+    {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /*
+     * True when a frame was published since the last take(), single reader
+     */
+    boolean changed()
+    {
+        return (middle.get() & FRESH) != 0;
+    }
+
+    /*
+     * The latest published frame, valid until the next take()
+     */
+    PitchFrame take()
+    {
+        if (changed()) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return frames[front];
+    }
+}
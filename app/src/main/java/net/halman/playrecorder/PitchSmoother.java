@@ -0,0 +1,195 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Smoothing of the pitch stream between the detector and the UI
+ *
+ * Pitches are smoothed in cents (from a4), so the filter behaves the same for all notes:
+ * - a median of the last median() frames removes single outliers (octave errors),
+ *   the median of 3 frames is one frame late, the longer ones are not allowed
+ * - a one-euro filter (low pass with the cutoff growing with the speed of the pitch) takes
+ *   out the jitter of a held note while it follows slides and vibrato, a jump of more than
+ *   JUMP cents (another note) is taken at once
+ * - the note changes only when the pitch is hysteresis() cents past the middle between
+ *   the notes, so an out of tune note does not flicker between its neighbours
+ * - up to HOLD frames without a pitch (or of low confidence) keep the last pitch
+ *
+ * G. Casiez, N. Roussel, D. Vogel: 1 euro filter, CHI 2012
+ */
+
+public class PitchSmoother {
+    // frames of lower confidence have no pitch
+    static final float MIN_CONFIDENCE = 0.3f;
+    private static final int MAX_MEDIAN = 3;
+    private static final int HOLD = 2;
+    private static final double JUMP = 80;
+    // cutoff of the speed estimate (Hz)
+    private static final double SPEED_CUTOFF = 1.0;
+
+    private volatile int median = 3;
+    private volatile double minCutoff = 1.5;
+    private volatile double beta = 0.02;
+    private volatile double hysteresis = 15;
+
+    private double[] history = new double[MAX_MEDIAN];
+    private int historyCount = 0;
+    private int historyNext = 0;
+    private boolean tracking = false;
+    private int misses = 0;
+    private double value = 0;
+    private double speed = 0;
+    private double lastTime = 0;
+    private float lastConfidence = 0;
+    private int note = 0;
+
+    int median()
+    {
+        return median;
+    }
+
+    /*
+     * Length of the median, 1 (off) or 3
+     */
+    void median(int m)
+    {
+        median = m >= MAX_MEDIAN ? MAX_MEDIAN : 1;
+    }
+
+    double minCutoff()
+    {
+        return minCutoff;
+    }
+
+    /*
+     * Cutoff frequency (Hz) of the filter for a steady pitch, lower is smoother
+     */
+    void minCutoff(double c)
+    {
+        minCutoff = Math.max(0.01, c);
+    }
+
+    double beta()
+    {
+        return beta;
+    }
+
+    /*
+     * Growth of the cutoff with the speed of the pitch (Hz per cent per second),
+     * higher follows faster changes
+     */
+    void beta(double b)
+    {
+        beta = Math.max(0, b);
+    }
+
+    double hysteresis()
+    {
+        return hysteresis;
+    }
+
+    /*
+     * Cents over the middle between two notes needed for a note change
+     */
+    void hysteresis(double h)
+    {
+        hysteresis = Math.max(0, Math.min(49, h));
+    }
+
+    /*
+     * Forget the pitch, e.g. at the end of the signal
+     */
+    void reset()
+    {
+        tracking = false;
+        historyCount = 0;
+        historyNext = 0;
+        misses = 0;
+    }
+
+    private static double alpha(double dt, double cutoff)
+    {
+        double tau = 1 / (2 * Math.PI * cutoff);
+        return 1 / (1 + tau / dt);
+    }
+
+    private double median(double cents)
+    {
+        int length = median;
+        history[historyNext] = cents;
+        historyNext = (historyNext + 1) % length;
+        historyCount = Math.min(historyCount + 1, length);
+
+        if (historyCount < 3) {
+            return cents;
+        }
+
+        double a = history[0];
+        double b = history[1];
+        double c = history[2];
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /*
+     * Smooth the pitch (Hz, 0 for none) of the frame ending at timestamp of the capture
+     * clock, the result is written to out
+     */
+    void filter(double pitch, double confidence, long timestamp, int sampleRate, PitchFrame out)
+    {
+        double time = timestamp / (double) sampleRate;
+
+        if (pitch <= 0 || confidence < MIN_CONFIDENCE) {
+            if (tracking && misses < HOLD) {
+                ++misses;
+                out.set(440 * Math.pow(2, value / 1200), note, lastConfidence, timestamp, sampleRate);
+            } else {
+                reset();
+                out.set(0, 0, timestamp, sampleRate);
+            }
+            return;
+        }
+
+        misses = 0;
+        if (historyNext >= median) {
+            // the median got shorter
+            historyNext = 0;
+            historyCount = 0;
+        }
+        double cents = median(1200 * Math.log(pitch / 440) / Math.log(2));
+
+        if (!tracking || Math.abs(cents - value) > JUMP || time <= lastTime) {
+            value = cents;
+            speed = 0;
+        } else {
+            double dt = time - lastTime;
+            double a = alpha(dt, SPEED_CUTOFF);
+            speed = a * (cents - value) / dt + (1 - a) * speed;
+            a = alpha(dt, minCutoff + beta * Math.abs(speed));
+            value = a * cents + (1 - a) * value;
+        }
+
+        if (!tracking || Math.abs(value - 100 * note) > 50 + hysteresis) {
+            note = (int) Math.round(value / 100);
+        }
+
+        tracking = true;
+        lastTime = time;
+        lastConfidence = (float) confidence;
+        out.set(440 * Math.pow(2, value / 1200), note, confidence, timestamp, sampleRate);
+    }
+}
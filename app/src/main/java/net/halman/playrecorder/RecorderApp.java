@@ -23,10 +23,14 @@ import static net.halman.playrecorder.Scale.*;
 import static net.halman.playrecorder.Scale.Clefs.G;
 
 public class RecorderApp {
+    // recent note events kept
+    private static final int NOTE_EVENTS = 64;
+
     public Scale scale = new Scale(0);
     public Note apparent_note = new Note(Note.c4, Note.Accidentals.NONE, false);
     private MusicalInstrument musical_instrument = new Recorder();
     private int last_recorder_fingering = Recorder.BAROQUE;
+    private ArrayList<NoteEvent> note_events = new ArrayList<NoteEvent>();
 
     int notePosition()
     {
@@ -171,6 +175,31 @@ public class RecorderApp {
         return musical_instrument.canPlay(scale, n);
     }
 
+    /*
+     * Store a note played to the listener, notes out of the range of the instrument are dropped
+     */
+    void noteEvent(NoteEvent event)
+    {
+        Note n = scale.frequencyNearestNote((int) Math.round(event.frequency() * 100));
+        if (!canPlay(n)) {
+            return;
+        }
+
+        event.note(n);
+        if (note_events.size() == NOTE_EVENTS) {
+            note_events.remove(0);
+        }
+        note_events.add(event);
+    }
+
+    /*
+     * The last played notes, the oldest first
+     */
+    ArrayList<NoteEvent> noteEvents()
+    {
+        return note_events;
+    }
+
     public Clefs clef()
     {
         return scale.clef();
@@ -265,6 +294,16 @@ public class RecorderApp {
         return musical_instrument.hole(orientation, index);
     }
 
+    int realLowestFrequency100()
+    {
+        return scale.noteToFrequency(musical_instrument.realLowestNote());
+    }
+
+    int realHighestFrequency100()
+    {
+        return scale.noteToFrequency(musical_instrument.realHighestNote());
+    }
+
     int lastRecorderFingering() {
         return last_recorder_fingering;
     }
@@ -0,0 +1,36 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Stage applied to every analysed sample by the Decimator (see BiquadChain, GainControl)
+ *
+ * The stages run one after the other in the loop which decimates the captured samples,
+ * so a stage must be cheap and must not allocate.
+ */
+
+public interface SampleFilter {
+    /*
+     * Set the stage up for the configuration, clears its state
+     */
+    void configure(AnalysisConfig c);
+
+    /*
+     * Process the next sample
+     */
+    double process(double x);
+}
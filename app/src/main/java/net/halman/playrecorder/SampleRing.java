@@ -0,0 +1,93 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Circular buffer of recorded samples
+ *
+ * Samples are addressed by their absolute position (number of samples recorded before them),
+ * the capacity is a power of two so the position maps to the array by a mask. Frames are
+ * read in place by index arithmetic: data()[(int) (position + i) & mask()].
+ */
+
+public class SampleRing {
+    private short[] data;
+    private int mask;
+    private long position = 0;
+
+    SampleRing(int minCapacity)
+    {
+        int capacity = 1;
+        while (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        data = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    short[] data()
+    {
+        return data;
+    }
+
+    int mask()
+    {
+        return mask;
+    }
+
+    int capacity()
+    {
+        return data.length;
+    }
+
+    /*
+     * Number of samples written so far, position of the next sample
+     */
+    long position()
+    {
+        return position;
+    }
+
+    /*
+     * Array index of the next sample, at most capacity() - writeIndex() samples can be
+     * written there without wrapping
+     */
+    int writeIndex()
+    {
+        return (int) position & mask;
+    }
+
+    /*
+     * Mark count samples written at writeIndex() as valid
+     */
+    void advance(int count)
+    {
+        position += count;
+    }
+
+    void write(short[] samples, int offset, int count)
+    {
+        while (count > 0) {
+            int index = writeIndex();
+            int n = Math.min(count, data.length - index);
+            System.arraycopy(samples, offset, data, index, n);
+            advance(n);
+            offset += n;
+            count -= n;
+        }
+    }
+}
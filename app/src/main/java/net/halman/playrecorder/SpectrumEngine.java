@@ -0,0 +1,76 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Spectral part of the pitch detection: Hann window and FFT
+ *
+ * The implementations differ only in the arithmetic used (double, float or Q15 fixed point),
+ * so the precision can be selected without touching the rest of Frequency. Only the window
+ * and the FFT, the largest buffers and most of the work, run in the selected precision: the
+ * filter stages (see SampleFilter), the power spectrum and the estimators (see SpectrumFrame)
+ * and the other detectors always work in double.
+ */
+
+public abstract class SpectrumEngine {
+
+    static SpectrumEngine create(int precision, int fftExp)
+    {
+        switch (precision) {
+            case Frequency.PRECISION_FLOAT:
+                return new FloatSpectrum(fftExp);
+            case Frequency.PRECISION_FIXED:
+                return new FixedSpectrum(fftExp);
+            default:
+                return new DoubleSpectrum(fftExp);
+        }
+    }
+
+    /*
+     * Number of samples transformed, the spectrum has size() / 2 + 1 bins
+     */
+    abstract int size();
+
+    /*
+     * Window length (at most size()) samples of the ring starting at position
+     * start, the rest of the frame is padded by zeros
+     */
+    abstract void load(SampleRing ring, long start, int length);
+
+    abstract void transform();
+
+    /*
+     * Squared magnitude of the bin, in the same units for all implementations
+     */
+    abstract double power(int bin);
+
+    /*
+     * Copy power of bins 0 .. size() / 2 to out
+     */
+    void power(double[] out)
+    {
+        int bins = size() / 2;
+        for (int j = 0; j <= bins; ++j) {
+            out[j] = power(j);
+        }
+    }
+
+    static double hann(int i, int size)
+    {
+        return .5 * (1 - Math.cos(2 * Math.PI * i / (size - 1.0)));
+    }
+}
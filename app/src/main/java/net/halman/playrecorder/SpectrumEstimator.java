@@ -0,0 +1,42 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Pitch estimator working on a spectrum (see SpectrumFrame)
+ *
+ * Several estimators can read the same frame, the samples are windowed and transformed
+ * only once.
+ */
+
+public interface SpectrumEstimator {
+    /*
+     * Estimate the pitch of the frame, returns the frequency in Hz or 0 when no pitch
+     * was found
+     */
+    double estimate(SpectrumFrame frame);
+
+    /*
+     * Confidence of the last estimated pitch, from 0 (noise) to 1 (clean tone)
+     */
+    double confidence();
+
+    /*
+     * Limit the search to pitches from lowest to highest (Hz)
+     */
+    void range(double lowest, double highest);
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+/*
+ * Power spectrum of a frame, shared by the spectrum estimators
+ *
+ * The frame is windowed and transformed by the engine (see SpectrumEngine) into one
+ * preallocated power buffer. Loading the same samples again is free, so every estimator
+ * can load the frame it needs and the transformation runs once per frame. With a noise
+ * profile of the room (see NoiseProfile) the noise is subtracted from every bin, a steady
+ * background does not win over a weaker note in any of the estimators.
+ */
+
+public class SpectrumFrame {
+    private static final double TINY = 1e-12;
+    // the noise of a single frame varies, a multiple of the average is subtracted
+    private static final double OVERSUBTRACTION = 2;
+    // part of the noise left in the bins without signal
+    private static final double NOISE_FLOOR = 0.01;
+
+    private SpectrumEngine spectrum;
+    private int sampleRate;
+    private double[] power;
+    // the loaded frame
+    private SampleRing ring = null;
+    private long start = 0;
+    private int length = 0;
+    // noise power of the bins for a window of the energy of one, null for none
+    private double[] noise = null;
+    // energy of the window of windowLength samples
+    private double windowEnergy = 0;
+    private int windowLength = 0;
+    // the samples are amplified by the gain control, so is the noise
+    private double noiseGain = 1;
+
+    SpectrumFrame(SpectrumEngine engine, int rate)
+    {
+        spectrum = engine;
+        sampleRate = rate;
+        power = new double[engine.size() / 2 + 1];
+    }
+
+    /*
+     * Size of the FFT, the spectrum has size() / 2 + 1 bins
+     */
+    int size()
+    {
+        return spectrum.size();
+    }
+
+    int sampleRate()
+    {
+        return sampleRate;
+    }
+
+    /*
+     * Number of samples of the loaded frame (without the zero padding)
+     */
+    int length()
+    {
+        return length;
+    }
+
+    /*
+     * Power of the bins 0 .. size() / 2 of the loaded frame, the estimators must not change it
+     */
+    double[] power()
+    {
+        return power;
+    }
+
+    /*
+     * Subtract the noise profile of the room from the spectra, null for none
+     */
+    void noise(NoiseProfile profile)
+    {
+        ring = null;
+        if (profile == null) {
+            noise = null;
+            return;
+        }
+
+        noise = new double[power.length];
+        for (int b = 0; b < noise.length; ++b) {
+            noise[b] = profile.density(b * (double) sampleRate / spectrum.size());
+        }
+    }
+
+    /*
+     * Gain of the analysed samples (see GainControl)
+     */
+    void noiseGain(double gain)
+    {
+        if (gain != noiseGain) {
+            ring = null;
+        }
+        noiseGain = gain;
+    }
+
+    /*
+     * Window and transform length (at most size()) samples of the ring starting at position
+     * start, nothing is done when the frame is loaded already
+     */
+    void load(SampleRing r, long s, int l)
+    {
+        l = Math.min(l, spectrum.size());
+        if (r == ring && s == start && l == length) {
+            return;
+        }
+
+        spectrum.load(r, s, l);
+        spectrum.transform();
+        spectrum.power(power);
+        ring = r;
+        start = s;
+        length = l;
+        if (noise != null) {
+            subtractNoise();
+        }
+    }
+
+    /*
+     * Gaussian interpolation of the peak: the main lobe of the Hann window is close
+     * to a Gaussian, so a parabola through the logarithms of the three bins around
+     * the peak finds the true frequency with an error of a few hundredths of a bin.
+     * Returns the offset of the peak from bin.
+     */
+    double peakOffset(int bin)
+    {
+        if (bin < 1 || bin >= spectrum.size() / 2) {
+            return 0;
+        }
+
+        double a = Math.log(power[bin - 1] + TINY);
+        double b = Math.log(power[bin] + TINY);
+        double c = Math.log(power[bin + 1] + TINY);
+        double d = a - 2 * b + c;
+        if (d >= 0) {
+            return 0;
+        }
+
+        return 0.5 * (a - c) / d;
+    }
+
+    private void subtractNoise()
+    {
+        if (length != windowLength) {
+            windowEnergy = 0;
+            for (int i = 0; i < length; ++i) {
+                double w = SpectrumEngine.hann(i, length);
+                windowEnergy += w * w;
+            }
+            windowLength = length;
+        }
+
+        double scale = windowEnergy * noiseGain * noiseGain;
+        for (int b = 0; b < noise.length; ++b) {
+            double n = noise[b] * scale;
+            power[b] = Math.max(power[b] - OVERSUBTRACTION * n, NOISE_FLOOR * n);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+/*
+ * Pitch of the spectrum of the frame found by one or more spectrum estimators
+ *
+ * The stages of the analysis are preallocated and chained: the frame is windowed and
+ * transformed once into the spectrum frame (see SpectrumFrame) and every estimator reads
+ * the same power buffer. The first estimator gives the pitch and the confidence, the others
+ * are available through pitch(i) and confidence(i) for the comparison of the methods.
+ *
+ * With a noise profile of the room (see NoiseProfile) the noise is subtracted from the power
+ * of every bin before the search, a steady background does not win over a weaker note.
+ */
+
+public class SpectrumPitchDetector implements PitchDetector {
+    private SpectrumFrame frame;
+    private SpectrumEstimator[] estimators;
+    private double[] pitches;
+    private int length;
+
+    /*
+     * Harmonic summation (see HarmonicEstimator) in the spectra of the engine
+     */
+    SpectrumPitchDetector(SpectrumEngine engine, int rate)
+    {
+        this(new SpectrumFrame(engine, rate), new HarmonicEstimator(engine.size(), rate));
+    }
+
+    SpectrumPitchDetector(SpectrumFrame frame, SpectrumEstimator... estimators)
+    {
+        this.frame = frame;
+        this.estimators = estimators;
+        pitches = new double[estimators.length];
+        length = frame.size();
+    }
+
+    @Override
+    public int frameLength()
+    {
+        return length;
+    }
+
+    /*
+     * Analyse frames of l samples (at most the FFT size), shorter frames are padded by zeros
+     */
+    void frameLength(int l)
+    {
+        length = Math.min(l, frame.size());
+    }
+
+    /*
+     * Subtract the noise profile of the room from the spectra, null for none
+     */
+    void noise(NoiseProfile profile)
+    {
+        frame.noise(profile);
+    }
+
+    /*
+     * Gain of the analysed samples (see GainControl)
+     */
+    void noiseGain(double gain)
+    {
+        frame.noiseGain(gain);
+    }
+
+    SpectrumFrame frame()
+    {
+        return frame;
+    }
+
+    int estimators()
+    {
+        return estimators.length;
+    }
+
+    /*
+     * Pitch of the last frame found by the estimator i, 0 for none
+     */
+    double pitch(int i)
+    {
+        return pitches[i];
+    }
+
+    double confidence(int i)
+    {
+        return estimators[i].confidence();
+    }
+
+    @Override
+    public void range(double lowest, double highest)
+    {
+        for (SpectrumEstimator e: estimators) {
+            e.range(lowest, highest);
+        }
+    }
+
+    @Override
+    public double detect(SampleRing ring, long start)
+    {
+        frame.load(ring, start, length);
+        for (int i = 0; i < estimators.length; ++i) {
+            pitches[i] = estimators[i].estimate(frame);
+        }
+
+        return pitches[0];
+    }
+
+    @Override
+    public double confidence()
+    {
+        return estimators[0].confidence();
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Pitch agreed by several detectors analysing the same samples at the same time
+ *
+ * The first detector runs on the calling thread and the others on a small fixed pool, so
+ * the frame takes as long as the slowest detector instead of the sum of all. Every detector
+ * reads the most recent frameLength() samples of its own from the shared ring, the ring
+ * is not written until all of them finish. The tasks of the pool and the phaser the caller
+ * waits on are created once, a frame allocates nothing.
+ *
+ * A spectrum detector (see SpectrumPitchDetector) can be the first one, then every one of
+ * its estimators votes: the frame is transformed once and all estimators read the same
+ * spectrum, the spectral votes cost little more than a single one.
+ *
+ * Each pitch is supported by the confidences of the votes which found a pitch within
+ * AGREEMENT of it. The pitch with the most support wins (the earlier vote on a tie), the
+ * result is the confidence weighted mean of the agreeing pitches and its confidence is the
+ * support divided by the number of votes: a pitch found by one vote alone is weak, an octave
+ * error of a single detector is outvoted.
+ */
+
+public class VotingPitchDetector implements PitchDetector {
+    // pitches closer than this (cents) agree
+    private static final double AGREEMENT = 50;
+
+    private PitchDetector[] detectors;
+    // the first detector when it votes by its estimators, otherwise null
+    private SpectrumPitchDetector spectrum = null;
+    // votes of the first detector, the others have one each
+    private int first = 1;
+    private double[] pitches;
+    private double[] confidences;
+    // tasks of the detectors run by the pool, the first detector has none
+    private Runnable[] tasks;
+    // the caller is the only registered party, every task of a frame registers and leaves
+    private Phaser finished = new Phaser(1);
+    private volatile RuntimeException failure = null;
+    private ThreadPoolExecutor pool = null;
+    private SampleRing ring;
+    private long end;
+    private double confidence = 0;
+
+    VotingPitchDetector(PitchDetector... detectors)
+    {
+        this.detectors = detectors;
+        pitches = new double[detectors.length];
+        confidences = new double[detectors.length];
+        tasks = new Runnable[detectors.length];
+        for (int i = 1; i < detectors.length; ++i) {
+            final int index = i;
+            tasks[i] = new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        VotingPitchDetector.this.run(index);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    } finally {
+                        finished.arriveAndDeregister();
+                    }
+                }
+            };
+        }
+    }
+
+    /*
+     * Every estimator of the spectrum detector votes, the other detectors run on the pool
+     */
+    VotingPitchDetector(SpectrumPitchDetector spectrum, PitchDetector... others)
+    {
+        this(join(spectrum, others));
+        spectrum(spectrum);
+    }
+
+    private static PitchDetector[] join(PitchDetector first, PitchDetector[] others)
+    {
+        PitchDetector[] all = new PitchDetector[others.length + 1];
+        all[0] = first;
+        System.arraycopy(others, 0, all, 1, others.length);
+        return all;
+    }
+
+    /*
+     * Replace the spectrum detector (e.g. by one of another FFT size for the next frame),
+     * it runs on the calling thread
+     */
+    void spectrum(SpectrumPitchDetector s)
+    {
+        detectors[0] = s;
+        spectrum = s;
+        if (first != s.estimators()) {
+            first = s.estimators();
+            pitches = new double[first + detectors.length - 1];
+            confidences = new double[pitches.length];
+        }
+    }
+
+    /*
+     * The longest frame of the detectors
+     */
+    @Override
+    public int frameLength()
+    {
+        int length = 0;
+        for (PitchDetector d: detectors) {
+            length = Math.max(length, d.frameLength());
+        }
+        return length;
+    }
+
+    @Override
+    public void range(double lowest, double highest)
+    {
+        for (PitchDetector d: detectors) {
+            d.range(lowest, highest);
+        }
+    }
+
+    @Override
+    public double detect(SampleRing ring, long start)
+    {
+        this.ring = ring;
+        end = start + frameLength();
+        if (pool == null && detectors.length > 1) {
+            // a queue of fixed capacity, no node is allocated for a task
+            pool = new ThreadPoolExecutor(detectors.length - 1, detectors.length - 1, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(detectors.length - 1), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "PlayRecorder voting");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        failure = null;
+        finished.bulkRegister(detectors.length - 1);
+        for (int i = 1; i < detectors.length; ++i) {
+            pool.execute(tasks[i]);
+        }
+        try {
+            run(0);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        int phase = finished.arrive();
+        try {
+            finished.awaitAdvanceInterruptibly(phase);
+        } catch (InterruptedException e) {
+            // the caller stops, but the detectors still read the ring, wait for them
+            finished.awaitAdvance(phase);
+            Thread.currentThread().interrupt();
+            confidence = 0;
+            return 0;
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Pitch detector failed", failure);
+        }
+
+        return vote();
+    }
+
+    @Override
+    public double confidence()
+    {
+        return confidence;
+    }
+
+    /*
+     * Number of votes, the estimators of the spectrum detector and the other detectors
+     */
+    int votes()
+    {
+        return pitches.length;
+    }
+
+    /*
+     * Pitch of the last frame found by the vote i, 0 for none
+     */
+    double pitch(int i)
+    {
+        return pitches[i];
+    }
+
+    double confidence(int i)
+    {
+        return confidences[i];
+    }
+
+    /*
+     * Stop the threads of the pool, they are started again by the next detect()
+     */
+    void release()
+    {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    private void run(int i)
+    {
+        PitchDetector d = detectors[i];
+        double pitch = d.detect(ring, end - d.frameLength());
+        if (i == 0 && spectrum != null) {
+            for (int e = 0; e < first; ++e) {
+                pitches[e] = spectrum.pitch(e);
+                confidences[e] = pitches[e] > 0 ? spectrum.confidence(e) : 0;
+            }
+            return;
+        }
+
+        int v = i == 0 ? 0 : first + i - 1;
+        pitches[v] = pitch;
+        confidences[v] = pitch > 0 ? d.confidence() : 0;
+    }
+
+    private double vote()
+    {
+        int best = -1;
+        double bestSupport = 0;
+        for (int i = 0; i < pitches.length; ++i) {
+            if (pitches[i] <= 0) {
+                continue;
+            }
+
+            double support = 0;
+            for (int j = 0; j < pitches.length; ++j) {
+                if (agree(pitches[i], pitches[j])) {
+                    support += confidences[j];
+                }
+            }
+            if (support > bestSupport) {
+                bestSupport = support;
+                best = i;
+            }
+        }
+
+        if (best < 0) {
+            confidence = 0;
+            return 0;
+        }
+
+        // mean of the agreeing pitches in the logarithmic scale
+        double sum = 0;
+        double weights = 0;
+        for (int j = 0; j < pitches.length; ++j) {
+            if (agree(pitches[best], pitches[j]) && confidences[j] > 0) {
+                sum += confidences[j] * Math.log(pitches[j]);
+                weights += confidences[j];
+            }
+        }
+
+        confidence = bestSupport / pitches.length;
+        return weights > 0 ? Math.exp(sum / weights) : pitches[best];
+    }
+
+    private static boolean agree(double a, double b)
+    {
+        return a > 0 && b > 0 && Math.abs(1200 * Math.log(a / b) / Math.log(2)) <= AGREEMENT;
+    }
+}
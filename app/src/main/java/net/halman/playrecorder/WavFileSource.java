@@ -0,0 +1,184 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Recorded 16 bit PCM samples, a WAV file or a headerless little endian file
+ *
+ * The file is memory mapped, the samples are read straight from the page cache without
+ * any intermediate buffer. More channels are mixed down to mono.
+ */
+
+public class WavFileSource implements AudioSource {
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    private ShortBuffer samples;
+    private int sampleRate;
+    private int channels = 1;
+
+    /*
+     * WAV file
+     */
+    WavFileSource(File file) throws IOException
+    {
+        ByteBuffer data = map(file);
+        if (data.remaining() < 12 || data.getInt(0) != 0x46464952 || data.getInt(8) != 0x45564157) {
+            throw new IOException("Not a WAV file: " + file);
+        }
+
+        // chunks follow the RIFF header, "fmt " must precede "data", the sizes are unsigned
+        long position = 12;
+        boolean format = false;
+        while (position + 8 <= data.limit()) {
+            int id = data.getInt((int) position);
+            long size = data.getInt((int) position + 4) & 0xffffffffL;
+            int body = (int) position + 8;
+            long end = body + size;
+
+            if (id == 0x61746164) {
+                if (!format) {
+                    throw new IOException("WAV data without format: " + file);
+                }
+                // a truncated recording, use what is there
+                int length = (int) Math.min(size, data.limit() - body);
+                data.position(body);
+                data.limit(body + length - length % (2 * channels));
+                samples = data.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                return;
+            }
+            if (end > data.limit()) {
+                throw new IOException("WAV chunk beyond the end of the file: " + file);
+            }
+
+            if (id == 0x20746d66) {
+                if (size < 16) {
+                    throw new IOException("WAV format chunk too short: " + file);
+                }
+                int type = data.getShort(body) & 0xffff;
+                channels = data.getShort(body + 2);
+                sampleRate = data.getInt(body + 4);
+                int bits = data.getShort(body + 14);
+                if ((type != FORMAT_PCM && type != FORMAT_EXTENSIBLE) || bits != 16 || channels < 1 || sampleRate <= 0) {
+                    throw new IOException("Unsupported WAV format (16 bit PCM only): " + file);
+                }
+                format = true;
+            }
+
+            // chunks are aligned to 2 bytes
+            position = end + (size & 1);
+        }
+
+        throw new IOException("WAV file without data: " + file);
+    }
+
+    /*
+     * Headerless mono file of the given sample rate
+     */
+    WavFileSource(File file, int rate) throws IOException
+    {
+        ByteBuffer data = map(file);
+        data.limit(data.limit() & ~1);
+        samples = data.asShortBuffer();
+        sampleRate = rate;
+    }
+
+    private static ByteBuffer map(File file) throws IOException
+    {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public int sampleRate()
+    {
+        return sampleRate;
+    }
+
+    @Override
+    public boolean live()
+    {
+        return false;
+    }
+
+    @Override
+    public int bufferSamples()
+    {
+        return 0;
+    }
+
+    /*
+     * Number of samples (frames of all channels) left
+     */
+    int remaining()
+    {
+        return samples.remaining() / channels;
+    }
+
+    @Override
+    public void start()
+    {
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length)
+    {
+        int count = Math.min(length, remaining());
+        if (channels == 1) {
+            samples.get(buffer, offset, count);
+            return count;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            int sum = 0;
+            for (int c = 0; c < channels; ++c) {
+                sum += samples.get();
+            }
+            buffer[offset + i] = (short) (sum / channels);
+        }
+        return count;
+    }
+
+    @Override
+    public void stop()
+    {
+    }
+
+    @Override
+    public void release()
+    {
+        samples = null;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+public class AnalysisConfigUnitTest {
+    @Test
+    public void stages ()
+    {
+        AnalysisConfig config = new AnalysisConfig(523.25, 2349.32);
+        config.stages(AnalysisConfig.STAGE_GAIN, AnalysisConfig.STAGE_FILTER);
+        assertArrayEquals(new int[] {AnalysisConfig.STAGE_GAIN, AnalysisConfig.STAGE_FILTER}, config.stages());
+        config.stages(new int[0]);
+        assertArrayEquals(new int[0], config.stages());
+
+        int[][] wrong = {{AnalysisConfig.STAGE_FILTER, AnalysisConfig.STAGE_FILTER}, {AnalysisConfig.STAGE_GAIN, 7}};
+        for (int[] stages : wrong) {
+            try {
+                config.stages(stages);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void estimators ()
+    {
+        AnalysisConfig config = new AnalysisConfig(523.25, 2349.32);
+        config.estimators(AnalysisConfig.ESTIMATOR_PEAK);
+        assertArrayEquals(new int[] {AnalysisConfig.ESTIMATOR_PEAK}, config.estimators());
+
+        try {
+            config.estimators(AnalysisConfig.ESTIMATOR_HARMONIC, -1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertArrayEquals(new int[] {AnalysisConfig.ESTIMATOR_PEAK}, config.estimators());
+    }
+}
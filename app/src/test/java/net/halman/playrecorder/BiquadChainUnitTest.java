@@ -0,0 +1,77 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BiquadChainUnitTest {
+    private static final int RATE = 44100;
+
+    /*
+     * Rms of the last half of a second of an offset tone captured at RATE and decimated
+     * and filtered for config
+     */
+    private static double filtered(AnalysisConfig config, double frequency, double amplitude, double offset)
+    {
+        BiquadChain filter = new BiquadChain();
+        filter.configure(config);
+        Decimator decimator = new Decimator(config.decimation(), config.blockSize(), filter);
+
+        int length = RATE;
+        int tail = config.sampleRate() / 2;
+        SampleRing ring = new SampleRing(length);
+        short[] block = new short[config.blockSize()];
+        for (int start = 0; start < length; start += block.length) {
+            for (int i = 0; i < block.length; ++i) {
+                block[i] = (short) (offset + amplitude * Math.sin(2 * Math.PI * frequency * (start + i) / RATE));
+            }
+            decimator.process(block, 0, block.length, ring);
+        }
+
+        double sum = 0;
+        for (int i = 0; i < tail; ++i) {
+            double v = ring.data()[(int) (ring.position() - tail + i) & ring.mask()];
+            sum += v * v;
+        }
+        return Math.sqrt(sum / tail);
+    }
+
+    @Test
+    public void band ()
+    {
+        // soprano recorder, c5 .. d7
+        AnalysisConfig config = new AnalysisConfig(523.25, 2349.32, RATE);
+        double amplitude = 8000;
+        double rms = amplitude / Math.sqrt(2);
+
+        // the notes pass
+        assertEquals(rms, filtered(config, 523.25, amplitude, 0), 0.05 * rms);
+        assertEquals(rms, filtered(config, 2349.32, amplitude, 0), 0.05 * rms);
+        // offset and rumble do not
+        assertEquals(0, filtered(config, 440, 0, 5000), 2);
+        assertTrue(filtered(config, 50, amplitude, 0) < 0.05 * rms);
+
+        config.preEmphasis(true);
+        BiquadChain filter = new BiquadChain();
+        filter.configure(config);
+        assertEquals(3, filter.sections());
+        assertTrue(filtered(config, 2349.32, amplitude, 0) > 1.5 * rms);
+    }
+}
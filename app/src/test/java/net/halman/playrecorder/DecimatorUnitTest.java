@@ -0,0 +1,103 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecimatorUnitTest {
+    private static final int RATE = 44100;
+
+    /*
+     * Capture length samples of a tone at RATE and decimate them in blocks of blockSize
+     */
+    private static SampleRing decimate(Decimator decimator, double frequency, double amplitude, int length, int blockSize)
+    {
+        SampleRing ring = new SampleRing(length / decimator.factor() + 1);
+        short[] block = new short[blockSize];
+        for (int start = 0; start < length; start += blockSize) {
+            int n = Math.min(blockSize, length - start);
+            for (int i = 0; i < n; ++i) {
+                block[i] = (short) (amplitude * Math.sin(2 * Math.PI * frequency * (start + i) / RATE));
+            }
+            decimator.process(block, 0, n, ring);
+        }
+        return ring;
+    }
+
+    private static double rms(SampleRing ring, int length)
+    {
+        double sum = 0;
+        for (int i = 0; i < length; ++i) {
+            double v = ring.data()[(int) (ring.position() - length + i) & ring.mask()];
+            sum += v * v;
+        }
+        return Math.sqrt(sum / length);
+    }
+
+    @Test
+    public void sopraninoRange ()
+    {
+        // f5 .. c8
+        AnalysisConfig config = new AnalysisConfig(698.46, 4186.01, RATE);
+        assertEquals(3, config.decimation());
+        assertEquals(14700, config.sampleRate());
+        assertEquals(AnalysisConfig.CAPTURE_RATE, new AnalysisConfig(174.61, 1046.50).captureRate());
+
+        Decimator decimator = new Decimator(config.decimation(), config.blockSize());
+        SpectrumPitchDetector detector = new SpectrumPitchDetector(SpectrumEngine.create(Frequency.PRECISION_DOUBLE, config.maxFftExp()), config.sampleRate());
+        detector.range(config.lowest(), config.highest());
+        detector.frameLength(config.maxWindowLength());
+
+        SampleRing ring = decimate(decimator, 4186.01, 8000, 3 * 2 * config.maxWindowLength(), config.blockSize());
+        double pitch = detector.detect(ring, ring.position() - detector.frameLength());
+        assertEquals(0, 1200 * Math.log(pitch / 4186.01) / Math.log(2), 2);
+    }
+
+    @Test
+    public void antiAliasing ()
+    {
+        int length = 3 * 4096;
+
+        // passband
+        Decimator decimator = new Decimator(3, 512);
+        SampleRing ring = decimate(decimator, 4400, 10000, length, 512);
+        assertEquals(10000 / Math.sqrt(2), rms(ring, 2048), 200);
+
+        // would alias to 4700 Hz at 14700 Hz
+        decimator = new Decimator(3, 512);
+        ring = decimate(decimator, 10000, 10000, length, 333);
+        assertTrue(rms(ring, 2048) < 10);
+    }
+
+    @Test
+    public void blockBoundaries ()
+    {
+        Decimator decimator = new Decimator(5, 512);
+        SampleRing ring = new SampleRing(64);
+        short[] block = new short[512];
+
+        assertEquals(35, decimator.inputLength(7));
+        assertEquals(3, decimator.process(block, 0, 17, ring));
+        // two samples of the next output are already in
+        assertEquals(18, decimator.inputLength(4));
+        assertEquals(4, decimator.process(block, 0, 18, ring));
+        assertEquals(7, ring.position());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EnergyGateUnitTest {
+    private static final int RATE = 8000;
+    private static final int HOP = 200;
+
+    private static boolean frame(EnergyGate gate, SampleRing ring, double amplitude)
+    {
+        short[] samples = new short[HOP];
+        for (int i = 0; i < HOP; ++i) {
+            samples[i] = (short) (amplitude * Math.sin(2 * Math.PI * 440 * i / RATE));
+        }
+        ring.write(samples, 0, HOP);
+        gate.add(ring, HOP);
+        return gate.update();
+    }
+
+    @Test
+    public void hysteresis ()
+    {
+        EnergyGate gate = new EnergyGate(RATE);
+        SampleRing ring = new SampleRing(1024);
+
+        assertFalse(frame(gate, ring, 0));
+        assertFalse(frame(gate, ring, 150));
+        assertTrue(frame(gate, ring, 2000));
+        // between the levels the gate stays open
+        for (int i = 0; i < 20; ++i) {
+            assertTrue(frame(gate, ring, 200));
+        }
+        // and closes after the hold time
+        assertTrue(frame(gate, ring, 50));
+        assertTrue(frame(gate, ring, 50));
+        assertTrue(frame(gate, ring, 50));
+        assertFalse(frame(gate, ring, 50));
+        assertFalse(frame(gate, ring, 200));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FFTUnitTest {
+    @Test
+    public void matchesDFT ()
+    {
+        Random random = new Random(42);
+
+        for (int exp = 2; exp <= 10; ++exp) {
+            FFT fft = new FFT(exp);
+            int n = fft.size();
+            double[] input = new double[n];
+            double[] real = new double[n / 2 + 1];
+            double[] img = new double[n / 2 + 1];
+
+            for (int i = 0; i < n; ++i) {
+                input[i] = random.nextDouble() * 2 - 1;
+            }
+
+            fft.realForward(input, real, img);
+
+            for (int k = 0; k <= n / 2; ++k) {
+                double r = 0;
+                double m = 0;
+                for (int t = 0; t < n; ++t) {
+                    double ang = -2 * Math.PI * k * t / n;
+                    r += input[t] * Math.cos(ang);
+                    m += input[t] * Math.sin(ang);
+                }
+                assertEquals(r, real[k], 1e-9);
+                assertEquals(m, img[k], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void sinePeak ()
+    {
+        FFT fft = new FFT(11);
+        int n = fft.size();
+        double[] input = new double[n];
+        double[] real = new double[n / 2 + 1];
+        double[] img = new double[n / 2 + 1];
+
+        for (int i = 0; i < n; ++i) {
+            input[i] = Math.sin(2 * Math.PI * 100 * i / n);
+        }
+
+        fft.realForward(input, real, img);
+        assertEquals(0, real[100], 1e-9);
+        assertEquals(-n / 2.0, img[100], 1e-9);
+        assertEquals(0, Math.hypot(real[101], img[101]), 1e-9);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencyUnitTest {
+    private static final int RATE = 44100;
+
+    /*
+     * A recorder-like tone with a weaker second harmonic
+     */
+    private static File tone(double f, double seconds) throws IOException
+    {
+        short[] samples = new short[(int) (seconds * RATE)];
+        for (int i = 0; i < samples.length; ++i) {
+            double t = 2 * Math.PI * f * i / RATE;
+            samples[i] = (short) (6000 * Math.sin(t) + 2000 * Math.sin(2 * t + 1));
+        }
+        return WavFileSourceUnitTest.write(WavFileSourceUnitTest.wav(RATE, 1, samples));
+    }
+
+    /*
+     * Run the analysis of the file to its end, returns the worst deviation (cents) of the
+     * published pitches from f, the frames published meanwhile are sampled by this thread
+     */
+    private static double analyse(File file, double f, int precision, int detector) throws Exception
+    {
+        Frequency frequency = new Frequency(null, new WavFileSource(file), new AnalysisConfig(523.25, 2349.3), precision);
+        frequency.detector(detector);
+        PitchMailbox mailbox = frequency.mailbox();
+        Thread analysis = new Thread(frequency);
+        analysis.start();
+
+        double worst = 0;
+        int frames = 0;
+        while (analysis.isAlive()) {
+            if (!mailbox.changed()) {
+                Thread.yield();
+                continue;
+            }
+            PitchFrame frame = mailbox.take();
+            if (frame.frequency() > 0) {
+                worst = Math.max(worst, Math.abs(1200 * Math.log(frame.frequency() / f) / Math.log(2)));
+                ++frames;
+            }
+        }
+        analysis.join();
+
+        assertTrue(frames > 0);
+        return worst;
+    }
+
+    @Test
+    public void wavFile () throws Exception
+    {
+        File file = tone(880, 2);
+        int[] precisions = {Frequency.PRECISION_DOUBLE, Frequency.PRECISION_FLOAT, Frequency.PRECISION_FIXED};
+        for (int p : precisions) {
+            assertEquals(0, analyse(file, 880, p, Frequency.DETECTOR_SPECTRUM), 10);
+        }
+        assertEquals(0, analyse(file, 880, Frequency.PRECISION_DOUBLE, Frequency.DETECTOR_VOTING), 10);
+    }
+}
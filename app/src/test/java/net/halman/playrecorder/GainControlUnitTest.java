@@ -0,0 +1,104 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GainControlUnitTest {
+    private static final int RATE = 44100;
+
+    /*
+     * Peak of the last tenth of a second of a second long tone captured at RATE, decimated
+     * and amplified for config, clipped counts the clipped input samples
+     */
+    private static double peak(AnalysisConfig config, double amplitude, int[] clipped)
+    {
+        GainControl gain = new GainControl();
+        gain.configure(config);
+        Decimator decimator = new Decimator(config.decimation(), config.blockSize(), gain);
+
+        SampleRing ring = new SampleRing(RATE);
+        short[] block = new short[config.blockSize()];
+        for (int start = 0; start < RATE; start += block.length) {
+            for (int i = 0; i < block.length; ++i) {
+                double x = amplitude * Math.sin(2 * Math.PI * 880 * (start + i) / RATE);
+                block[i] = (short) Math.max(-32768, Math.min(32767, Math.round(x)));
+            }
+            decimator.process(block, 0, block.length, ring);
+        }
+        clipped[0] = decimator.clipped();
+
+        int tail = config.sampleRate() / 10;
+        double max = 0;
+        for (int i = 0; i < tail; ++i) {
+            max = Math.max(max, Math.abs(ring.data()[(int) (ring.position() - tail + i) & ring.mask()]));
+        }
+        return max;
+    }
+
+    @Test
+    public void levels ()
+    {
+        AnalysisConfig config = new AnalysisConfig(523.25, 2349.32, RATE);
+        int[] clipped = new int[1];
+
+        // soft and loud players end at the same level
+        assertEquals(8192, peak(config, 2500, clipped), 600);
+        assertEquals(8192, peak(config, 25000, clipped), 600);
+        assertEquals(0, clipped[0]);
+
+        // the noise of the room is not lifted
+        assertEquals(150, peak(config, 150, clipped), 5);
+
+        // clipped input is reported
+        peak(config, 40000, clipped);
+        assertTrue(clipped[0] > 0);
+
+        config.automaticGain(false);
+        assertEquals(2500, peak(config, 2500, clipped), 20);
+    }
+
+    @Test
+    public void gainedClipping ()
+    {
+        AnalysisConfig config = new AnalysisConfig(523.25, 2349.32, RATE);
+        GainControl gain = new GainControl();
+        gain.configure(config);
+        Decimator decimator = new Decimator(config.decimation(), config.blockSize(), gain);
+        SampleRing ring = new SampleRing(RATE);
+
+        // the gain rises to its limit between FLOOR and TARGET
+        short[] block = new short[config.blockSize()];
+        for (int start = 0; start < 2 * RATE; start += block.length) {
+            double amplitude = start < RATE ? 1460 : 20000;
+            for (int i = 0; i < block.length; ++i) {
+                block[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 880 * (start + i) / RATE));
+            }
+            decimator.process(block, 0, block.length, ring);
+            if (start + block.length >= RATE && start < RATE) {
+                assertTrue(gain.gain() > 4 && gain.gain() <= Math.sqrt(8192 / 260.0));
+                assertEquals(0, decimator.clipped());
+            }
+        }
+
+        // the loud note comes before the gain falls, the input is not clipped
+        assertTrue(decimator.clipped() > 0);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class NoteSegmenterUnitTest {
+    private static final int RATE = 8000;
+    private static final int HOP = 200;
+
+    @Test
+    public void segments ()
+    {
+        // silence, two legato notes, silence, a note, silence
+        double[] frequency = {0, 523.25, 587.33, 0, 659.26, 0};
+        double[] length = {0.3, 0.5, 0.4, 0.2, 0.3, 0.3};
+
+        EnergyGate gate = new EnergyGate(RATE);
+        NoteSegmenter segmenter = new NoteSegmenter(RATE, 500, 2000);
+        SampleRing ring = new SampleRing(4096);
+        ArrayList<NoteEvent> events = new ArrayList<NoteEvent>();
+        short[] hop = new short[HOP];
+        double phase = 0;
+        long position = 0;
+
+        for (int part = 0; part < frequency.length; ++part) {
+            long end = position + Math.round(length[part] * RATE);
+            for (; position < end; position += HOP) {
+                for (int i = 0; i < HOP; ++i) {
+                    phase += 2 * Math.PI * frequency[part] / RATE;
+                    hop[i] = (short) (frequency[part] > 0 ? 4000 * Math.sin(phase) + 1500 * Math.sin(2 * phase) : 0);
+                }
+                ring.write(hop, 0, HOP);
+                gate.add(ring, HOP);
+                boolean signal = gate.update();
+                NoteEvent e = segmenter.frame(ring, (position + HOP) / (double) RATE, signal ? frequency[part] : 0, signal, gate.rms());
+                if (e != null) {
+                    events.add(e);
+                }
+            }
+        }
+
+        assertEquals(3, events.size());
+        for (int i = 0; i < 3; ++i) {
+            int part = i < 2 ? i + 1 : 4;
+            double start = 0;
+            for (int j = 0; j < part; ++j) {
+                start += length[j];
+            }
+            assertEquals(frequency[part], events.get(i).frequency(), 0.01);
+            assertEquals(start, events.get(i).start(), 0.06);
+            // the last note holds on for the gate
+            assertEquals(length[part], events.get(i).duration(), i == 2 ? 0.15 : 0.06);
+        }
+    }
+}
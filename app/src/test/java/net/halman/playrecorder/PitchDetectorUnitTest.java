@@ -0,0 +1,378 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PitchDetectorUnitTest {
+    private static final int RATE = 8000;
+
+    private static SampleRing tone(double frequency, double fundamental, double second, int length)
+    {
+        return tone(frequency, fundamental, second, length, RATE);
+    }
+
+    private static SampleRing tone(double frequency, double fundamental, double second, int length, int rate)
+    {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; ++i) {
+            double t = 2 * Math.PI * frequency * i / rate;
+            samples[i] = (short) (fundamental * Math.sin(t) + second * Math.sin(2 * t + 1));
+        }
+
+        // start in the middle of the ring to cover the wrap around
+        SampleRing ring = new SampleRing(length);
+        ring.advance(ring.capacity() / 2);
+        ring.write(samples, 0, length);
+        return ring;
+    }
+
+    private static double cents(double expected, double actual)
+    {
+        return 1200 * Math.log(actual / expected) / Math.log(2);
+    }
+
+    @Test
+    public void spectrumInterpolation ()
+    {
+        for (int precision = Frequency.PRECISION_DOUBLE; precision <= Frequency.PRECISION_FIXED; ++precision) {
+            PitchDetector detector = new SpectrumPitchDetector(SpectrumEngine.create(precision, 11), RATE);
+            detector.range(250, 2200);
+
+            for (double f = 261.63; f < 2100; f *= 1.0293) {
+                SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+                assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 2);
+            }
+        }
+    }
+
+    @Test
+    public void spectrumZeroPadding ()
+    {
+        SpectrumPitchDetector detector = new SpectrumPitchDetector(SpectrumEngine.create(Frequency.PRECISION_DOUBLE, 11), RATE);
+        detector.range(170, 1100);
+        detector.frameLength(777);
+        assertEquals(777, detector.frameLength());
+
+        for (double f = 174.61; f < 1050; f *= 1.0595) {
+            SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 2);
+        }
+    }
+
+    @Test
+    public void spectrumOctave ()
+    {
+        PitchDetector detector = new SpectrumPitchDetector(SpectrumEngine.create(Frequency.PRECISION_DOUBLE, 11), RATE);
+        detector.range(523.25, 3136);
+
+        // soft fundamental, strong second harmonic
+        SampleRing samples = tone(587.33, 800, 2000, detector.frameLength());
+        assertEquals(0, cents(587.33, detector.detect(samples, samples.position() - detector.frameLength())), 2);
+    }
+
+    @Test
+    public void spectrumTracking ()
+    {
+        PitchDetector detector = new SpectrumPitchDetector(SpectrumEngine.create(Frequency.PRECISION_DOUBLE, 11), RATE);
+        detector.range(250, 2200);
+
+        // held note with a slow drift, another note, its octave and back
+        double[] notes = { 440, 441, 443, 445, 293.66, 293.66, 587.33, 587.33, 1174.66, 392, 440 };
+        for (double f : notes) {
+            SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 2);
+            assertTrue(detector.confidence() > 0.9);
+        }
+    }
+
+    @Test
+    public void spectrumNoise ()
+    {
+        SpectrumPitchDetector detector = new SpectrumPitchDetector(SpectrumEngine.create(Frequency.PRECISION_DOUBLE, 11), RATE);
+        detector.range(500, 2400);
+        int length = detector.frameLength();
+        Random random = new Random(7);
+
+        // a steady whistle of another player and hiss, then a softer d5 over them
+        SampleRing ring = new SampleRing(4 * length);
+        short[] block = new short[length / 4];
+        NoiseProfile profile = new NoiseProfile(RATE, 11, length);
+        long t = 0;
+        for (int frame = 0; frame < 40; ++frame) {
+            for (int i = 0; i < block.length; ++i, ++t) {
+                double x = 3000 * Math.sin(2 * Math.PI * 1046.5 * t / RATE) + 500 * random.nextGaussian();
+                if (frame >= 20) {
+                    x += 1200 * Math.sin(2 * Math.PI * 587.33 * t / RATE);
+                }
+                block[i] = (short) x;
+            }
+            ring.write(block, 0, block.length);
+            if (frame >= 4 && frame < 20) {
+                profile.add(ring, ring.position(), 1);
+            }
+        }
+
+        long start = ring.position() - length;
+        assertEquals(0, cents(1046.5, detector.detect(ring, start)), 5);
+
+        detector.noise(profile);
+        assertEquals(0, cents(587.33, detector.detect(ring, start)), 5);
+        assertTrue(detector.confidence() > 0.6);
+    }
+
+    @Test
+    public void spectrumEstimators ()
+    {
+        final int[] transforms = { 0 };
+        SpectrumEngine engine = new DoubleSpectrum(11) {
+            @Override
+            void transform()
+            {
+                ++transforms[0];
+                super.transform();
+            }
+        };
+        SpectrumPitchDetector detector = new SpectrumPitchDetector(new SpectrumFrame(engine, RATE),
+                new HarmonicEstimator(engine.size(), RATE), new PeakEstimator(engine.size(), RATE));
+        detector.range(250, 2200);
+        assertEquals(2, detector.estimators());
+
+        // both estimators read the spectrum of one transformation
+        SampleRing samples = tone(659.26, 3000, 1500, detector.frameLength());
+        assertEquals(0, cents(659.26, detector.detect(samples, samples.position() - detector.frameLength())), 2);
+        assertEquals(0, cents(659.26, detector.pitch(1)), 2);
+        assertTrue(detector.confidence(1) > 0.5);
+        assertEquals(1, transforms[0]);
+    }
+
+    @Test
+    public void mcleod ()
+    {
+        PitchDetector detector = new McLeodPitchDetector(RATE, 8);
+        detector.range(170, 1100);
+
+        for (double f = 174.61; f < 1050; f *= 1.0595) {
+            SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 10);
+        }
+
+        // upper octave of a soprano recorder, a few samples per period at the analysis rate
+        AnalysisConfig config = new AnalysisConfig(523.25, 2349.3);
+        int rate = config.sampleRate();
+        detector = new McLeodPitchDetector(rate, config.mcleodExp());
+        detector.range(config.lowest(), config.highest());
+        for (double f = 1046.5; f < 2400; f *= 1.0595) {
+            // the decimator removes harmonics above the passband
+            double second = 2 * f < Decimator.PASSBAND * rate ? 1500 : 0;
+            SampleRing samples = tone(f, 3000, second, detector.frameLength(), rate);
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 5);
+        }
+    }
+
+    @Test
+    public void goertzel ()
+    {
+        PitchDetector detector = new GoertzelPitchDetector(RATE);
+        detector.range(170, 1100);
+
+        for (double f = 174.61; f < 1050; f *= 1.0437) {
+            SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 3);
+        }
+
+        // soft fundamental, strong second harmonic
+        SampleRing samples = tone(587.33, 800, 2000, detector.frameLength());
+        assertEquals(0, cents(587.33, detector.detect(samples, samples.position() - detector.frameLength())), 3);
+    }
+
+    @Test
+    public void goertzelSliding ()
+    {
+        GoertzelPitchDetector plain = new GoertzelPitchDetector(RATE);
+        GoertzelPitchDetector sliding = new GoertzelPitchDetector(RATE);
+        plain.range(500, 2400);
+        sliding.range(500, 2400);
+        sliding.sliding(true);
+
+        int length = plain.frameLength();
+        int hop = 20;
+        SampleRing ring = new SampleRing(2 * length);
+        short[] block = new short[hop];
+        long t = 0;
+        double phase = 0;
+
+        // a slide from c5 to a6 over a few seconds of short hops, more than RESYNC
+        for (int frame = 0; frame < 1600; ++frame) {
+            double f = 523.25 * Math.pow(2, 1.75 * frame / 1600);
+            for (int i = 0; i < hop; ++i, ++t) {
+                phase += 2 * Math.PI * f / RATE;
+                block[i] = (short) (3000 * Math.sin(phase) + 1500 * Math.sin(2 * phase + 1));
+            }
+            ring.write(block, 0, hop);
+            if (t < length) {
+                continue;
+            }
+
+            // the plain filters of the low notes run on the decimated frame
+            long start = ring.position() - length;
+            double expected = plain.detect(ring, start);
+            assertEquals(0, cents(expected, sliding.detect(ring, start)), 1);
+            assertEquals(plain.confidence(), sliding.confidence(), 0.01);
+        }
+    }
+
+    @Test
+    public void goertzelCost ()
+    {
+        // soprano, bass and sopranino recorder
+        double[][] ranges = { {523.25, 2349.3}, {174.61, 783.99}, {698.46, 3135.96} };
+        for (double[] range : ranges) {
+            AnalysisConfig config = new AnalysisConfig(range[0], range[1]);
+            GoertzelPitchDetector detector = new GoertzelPitchDetector(config.sampleRate());
+            detector.range(config.lowest(), config.highest());
+
+            // fewer filter steps than butterflies of the FFT of the spectral window
+            int exp = config.maxFftExp();
+            assertTrue(detector.cost() < (1 << exp) / 2 * exp);
+        }
+    }
+
+    @Test
+    public void constantQ ()
+    {
+        PitchDetector detector = new ConstantQPitchDetector(RATE);
+        detector.range(170, 1100);
+
+        for (double f = 174.61; f < 1050; f *= 1.0437) {
+            SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 3);
+        }
+
+        // soft fundamental, strong second harmonic
+        SampleRing samples = tone(587.33, 800, 2000, detector.frameLength());
+        assertEquals(0, cents(587.33, detector.detect(samples, samples.position() - detector.frameLength())), 3);
+    }
+
+    private static PitchDetector fixed(final double pitch, final double confidence)
+    {
+        return new PitchDetector() {
+            @Override
+            public int frameLength()
+            {
+                return 256;
+            }
+
+            @Override
+            public double detect(SampleRing ring, long start)
+            {
+                return pitch;
+            }
+
+            @Override
+            public double confidence()
+            {
+                return confidence;
+            }
+
+            @Override
+            public void range(double lowest, double highest)
+            {
+            }
+        };
+    }
+
+    @Test
+    public void voting ()
+    {
+        VotingPitchDetector detector = new VotingPitchDetector(
+            new SpectrumPitchDetector(SpectrumEngine.create(Frequency.PRECISION_DOUBLE, 11), RATE),
+            new McLeodPitchDetector(RATE, 9),
+            new ConstantQPitchDetector(RATE));
+        detector.range(170, 1100);
+
+        for (double f = 174.61; f < 1050; f *= 1.0595) {
+            SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 5);
+            assertTrue(detector.confidence() > 0.6);
+        }
+
+        detector.release();
+
+        // the spectral estimators vote over one transform of the frame
+        SpectrumEngine engine = SpectrumEngine.create(Frequency.PRECISION_DOUBLE, 11);
+        SpectrumPitchDetector spectrum = new SpectrumPitchDetector(new SpectrumFrame(engine, RATE),
+            new HarmonicEstimator(engine.size(), RATE), new PeakEstimator(engine.size(), RATE));
+        detector = new VotingPitchDetector(spectrum, new McLeodPitchDetector(RATE, 9));
+        detector.range(170, 1100);
+        assertEquals(3, detector.votes());
+
+        for (double f = 174.61; f < 1050; f *= 1.0595) {
+            SampleRing samples = tone(f, 3000, 1500, detector.frameLength());
+            assertEquals(0, cents(f, detector.detect(samples, samples.position() - detector.frameLength())), 5);
+            assertTrue(detector.confidence() > 0.6);
+        }
+
+        detector.release();
+
+        // an octave error of one detector is outvoted
+        SampleRing samples = new SampleRing(256);
+        detector = new VotingPitchDetector(fixed(880, 0.9), fixed(440, 0.8), fixed(441, 0.7));
+        assertEquals(0, cents(440.5, detector.detect(samples, 0)), 2);
+        assertEquals(0.5, detector.confidence(), 0.01);
+        assertEquals(880, detector.pitch(0), 0);
+
+        detector = new VotingPitchDetector(fixed(0, 0), fixed(0, 0), fixed(0, 0));
+        assertEquals(0, detector.detect(samples, 0), 0);
+        assertEquals(0, detector.confidence(), 0);
+        detector.release();
+    }
+
+    @Test
+    public void confidence ()
+    {
+        PitchDetector[] detectors = {
+            new SpectrumPitchDetector(SpectrumEngine.create(Frequency.PRECISION_DOUBLE, 11), RATE),
+            new McLeodPitchDetector(RATE, 9),
+            new GoertzelPitchDetector(RATE),
+            new ConstantQPitchDetector(RATE)
+        };
+        Random random = new Random(42);
+
+        for (PitchDetector detector : detectors) {
+            detector.range(170, 1100);
+            int length = detector.frameLength();
+
+            SampleRing samples = tone(440, 3000, 1500, length);
+            detector.detect(samples, samples.position() - length);
+            assertTrue(detector.confidence() > 0.8);
+
+            short[] noise = new short[length];
+            for (int i = 0; i < length; ++i) {
+                noise[i] = (short) (2000 * random.nextGaussian());
+            }
+            samples.write(noise, 0, length);
+            detector.detect(samples, samples.position() - length);
+            assertTrue(detector.confidence() < 0.3);
+        }
+    }
+}
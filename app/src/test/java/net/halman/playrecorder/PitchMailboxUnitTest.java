@@ -0,0 +1,66 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PitchMailboxUnitTest {
+    private static void post(PitchMailbox mailbox, double hz, long timestamp)
+    {
+        mailbox.claim().set(hz, 1, timestamp, 8000);
+        mailbox.publish();
+    }
+
+    @Test
+    public void latest ()
+    {
+        PitchMailbox mailbox = new PitchMailbox();
+        assertFalse(mailbox.changed());
+
+        post(mailbox, 440, 100);
+        post(mailbox, 445, 200);
+        assertTrue(mailbox.changed());
+        PitchFrame frame = mailbox.take();
+        assertEquals(445, frame.frequency(), 0.001);
+        assertEquals(200, frame.timestamp());
+        assertEquals(0.025, frame.time(), 1e-9);
+        assertFalse(mailbox.changed());
+
+        // the frame of the reader is not touched by the writer
+        post(mailbox, 500, 300);
+        post(mailbox, 510, 400);
+        assertEquals(445, frame.frequency(), 0.001);
+        assertEquals(510, mailbox.take().frequency(), 0.001);
+        assertEquals(510, mailbox.take().frequency(), 0.001);
+    }
+
+    @Test
+    public void cents ()
+    {
+        PitchFrame frame = new PitchFrame();
+        frame.set(440 * Math.pow(2, 0.3 / 12), 1, 0, 8000);
+        assertEquals(30, frame.cents(), 0.01);
+        frame.set(261.63 * Math.pow(2, -0.45 / 12), 1, 0, 8000);
+        assertEquals(-45, frame.cents(), 0.1);
+        frame.set(0, 0, 0, 8000);
+        assertEquals(0, frame.cents(), 0);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PitchSmootherUnitTest {
+    // frames of 10 ms
+    private static final int RATE = 8000;
+    private static final int HOP = 80;
+
+    private static double cents(double hz)
+    {
+        return 1200 * Math.log(hz / 440) / Math.log(2);
+    }
+
+    @Test
+    public void outliers ()
+    {
+        PitchSmoother smoother = new PitchSmoother();
+        PitchFrame frame = new PitchFrame();
+        long clock = 0;
+
+        for (int i = 0; i < 20; ++i) {
+            // a single octave error is removed by the median
+            double hz = i == 10 ? 880 : 440;
+            smoother.filter(hz, 1, clock += HOP, RATE, frame);
+            assertEquals(440, frame.frequency(), 0.5);
+            assertEquals(0, frame.note());
+        }
+
+        // frames without a pitch keep the last one for a while
+        smoother.filter(0, 0, clock += HOP, RATE, frame);
+        assertEquals(440, frame.frequency(), 0.5);
+        smoother.filter(300, 0.1, clock += HOP, RATE, frame);
+        assertEquals(440, frame.frequency(), 0.5);
+        smoother.filter(0, 0, clock += HOP, RATE, frame);
+        assertEquals(0, frame.frequency(), 0);
+    }
+
+    @Test
+    public void jitter ()
+    {
+        PitchSmoother smoother = new PitchSmoother();
+        PitchFrame frame = new PitchFrame();
+        Random random = new Random(3);
+        long clock = 0;
+        double raw = 0;
+        double smooth = 0;
+
+        for (int i = 0; i < 200; ++i) {
+            double c = 8 * random.nextGaussian();
+            smoother.filter(440 * Math.pow(2, c / 1200), 1, clock += HOP, RATE, frame);
+            if (i >= 20) {
+                raw += c * c;
+                smooth += frame.cents() * frame.cents();
+            }
+        }
+        assertTrue(smooth < raw / 4);
+    }
+
+    @Test
+    public void noteChange ()
+    {
+        PitchSmoother smoother = new PitchSmoother();
+        PitchFrame frame = new PitchFrame();
+        long clock = 0;
+
+        for (int i = 0; i < 20; ++i) {
+            smoother.filter(440, 1, clock += HOP, RATE, frame);
+        }
+
+        // the next note is followed at most one frame late
+        double b4 = 440 * Math.pow(2, 2 / 12.0);
+        smoother.filter(b4, 1, clock += HOP, RATE, frame);
+        smoother.filter(b4, 1, clock += HOP, RATE, frame);
+        assertEquals(2, frame.note());
+        assertEquals(b4, frame.frequency(), 0.5);
+
+        // an out of tune note stays on the same note
+        for (int i = 0; i < 40; ++i) {
+            double c = 200 + (i % 2 == 0 ? 55 : 45);
+            smoother.filter(440 * Math.pow(2, c / 1200), 1, clock += HOP, RATE, frame);
+            assertEquals(2, frame.note());
+        }
+        assertEquals(50, frame.cents(), 3);
+
+        // but not for ever
+        for (int i = 0; i < 20; ++i) {
+            smoother.filter(440 * Math.pow(2, 275 / 1200.0), 1, clock += HOP, RATE, frame);
+        }
+        assertEquals(3, frame.note());
+        assertEquals(275, cents(frame.frequency()), 1);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of PlayRecorder.
+ *
+ * PlayRecorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PlayRecorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.halman.playrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WavFileSourceUnitTest {
+    static File write(byte[] content) throws IOException
+    {
+        File file = File.createTempFile("playrecorder", ".wav");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    static byte[] wav(int rate, int channels, short[] samples)
+    {
+        ByteBuffer b = ByteBuffer.allocate(44 + 10 + 2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x46464952).putInt(b.capacity() - 8).putInt(0x45564157);
+        b.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) channels);
+        b.putInt(rate).putInt(rate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        // an unknown chunk of odd size is skipped
+        b.putInt(0x5453494c).putInt(1).put((byte) 0).put((byte) 0);
+        b.putInt(0x61746164).putInt(2 * samples.length);
+        for (short s : samples) {
+            b.putShort(s);
+        }
+        return b.array();
+    }
+
+    @Test
+    public void mono () throws IOException
+    {
+        short[] samples = new short[1000];
+        for (int i = 0; i < samples.length; ++i) {
+            samples[i] = (short) (i * 30 - 15000);
+        }
+        WavFileSource source = new WavFileSource(write(wav(22050, 1, samples)));
+        assertEquals(22050, source.sampleRate());
+        assertEquals(1000, source.remaining());
+
+        short[] buffer = new short[512];
+        assertEquals(512, source.read(buffer, 0, 512));
+        assertEquals(samples[511], buffer[511]);
+        assertEquals(488, source.read(buffer, 0, 512));
+        assertEquals(samples[999], buffer[487]);
+        assertEquals(0, source.read(buffer, 0, 512));
+    }
+
+    @Test
+    public void stereo () throws IOException
+    {
+        short[] samples = {100, 300, -1000, -2000, 7, 8};
+        WavFileSource source = new WavFileSource(write(wav(48000, 2, samples)));
+        short[] buffer = new short[4];
+        assertEquals(3, source.read(buffer, 0, 4));
+        assertEquals(200, buffer[0]);
+        assertEquals(-1500, buffer[1]);
+        assertEquals(7, buffer[2]);
+    }
+
+    /*
+     * RIFF header followed by a chunk of the given id and declared size with body bytes
+     */
+    private static byte[] chunk(int id, int size, int body)
+    {
+        ByteBuffer b = ByteBuffer.allocate(20 + body).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x46464952).putInt(b.capacity() - 8).putInt(0x45564157);
+        b.putInt(id).putInt(size);
+        return b.array();
+    }
+
+    private static void malformed(byte[] content) throws IOException
+    {
+        try {
+            new WavFileSource(write(content));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void malformed () throws IOException
+    {
+        // a short format chunk
+        malformed(chunk(0x20746d66, 8, 8));
+        // a chunk beyond the end of the file, the size is unsigned
+        malformed(chunk(0x5453494c, 0xfffffff0, 4));
+        malformed(chunk(0x5453494c, 100, 4));
+
+        // a recording with the data size left open is read to the end of the file
+        byte[] content = wav(8000, 1, new short[] {1, 2, 3});
+        ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).putInt(content.length - 10, -1);
+        assertEquals(3, new WavFileSource(write(content)).remaining());
+    }
+
+    @Test
+    public void raw () throws IOException
+    {
+        WavFileSource source = new WavFileSource(write(new byte[] {1, 0, -1, -1, 0, 1, 5}), 8000);
+        short[] buffer = new short[4];
+        assertEquals(3, source.read(buffer, 0, 4));
+        assertEquals(1, buffer[0]);
+        assertEquals(-1, buffer[1]);
+        assertEquals(256, buffer[2]);
+    }
+}